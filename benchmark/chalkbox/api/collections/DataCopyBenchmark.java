@@ -0,0 +1,112 @@
+package chalkbox.api.collections;
+
+import org.json.simple.JSONArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares copying the results of a submission by serialising and parsing
+ * them, as {@link Data#Data(Data)} used to, with the deep copy it makes now.
+ *
+ * The results resemble those of a Java assignment graded against 21 faulty
+ * solutions: compilation and conformance results, 80 functionality tests and
+ * a JUnit result for each solution with a few kilobytes of failure output.
+ *
+ * Run with <code>./gradlew jmh</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DataCopyBenchmark {
+
+    private static final int FAULTY_SOLUTIONS = 21;
+    private static final int FUNCTIONALITY_TESTS = 80;
+
+    private Data results;
+
+    @Setup
+    public void setUp() {
+        results = new Data();
+        results.set("root", "/autograder/submission");
+        results.set("json", "/autograder/results/results.json");
+        results.set("extra_data.compilation.compiles", true);
+        results.set("extra_data.compilation.output", "Submission successfully compiled\n");
+        results.set("extra_data.junit.compiles", true);
+
+        JSONArray tests = new JSONArray();
+        Data conformance = new Data();
+        conformance.set("name", "Conformance");
+        conformance.text("output").append("-------- Missing files --------\n\n"
+                + "No missing files\n\n");
+        conformance.set("score", 10);
+        conformance.set("max_score", 10);
+        tests.add(conformance);
+
+        for (int i = 0; i < FUNCTIONALITY_TESTS; i++) {
+            Data test = new Data();
+            test.set("name", "IntersectionTest.test" + i);
+            test.set("output", i % 10 == 0 ? trace("IntersectionTest.test" + i) : "");
+            test.set("weighting", 1);
+            test.set("visibility", "after_published");
+            test.set("extra_data.passes", i % 10 == 0 ? 0 : 1);
+            test.set("extra_data.fails", i % 10 == 0 ? 1 : 0);
+            test.set("extra_data.total", 1);
+            test.set("score", i % 10 == 0 ? 0 : 0.125);
+            test.set("max_score", 0.125);
+            tests.add(test);
+        }
+
+        for (int i = 0; i < FAULTY_SOLUTIONS; i++) {
+            Data solution = new Data();
+            solution.set("name", "JUnit (faulty" + i + ")");
+            solution.set("visibility", "after_published");
+            solution.set("score", i % 3 == 0 ? 0 : 0.5);
+            solution.set("max_score", 0.5);
+            StringBuilder output = new StringBuilder("-------- Result --------\n");
+            for (int j = 0; j < 5; j++) {
+                output.append(trace("IntersectionTest.detects" + j));
+            }
+            solution.set("output", output.toString());
+            solution.set("extra_data.timing.class_ms", 25.5);
+            tests.add(solution);
+        }
+        results.set("tests", tests);
+    }
+
+    /*
+     * Helper to make a typical failure message and stack trace.
+     */
+    private static String trace(String test) {
+        StringBuilder trace = new StringBuilder(test + "(tms.IntersectionTest): "
+                + "expected:<3> but was:<2>\n\njava.lang.AssertionError: expected:<3> "
+                + "but was:<2>\n");
+        for (int i = 0; i < 12; i++) {
+            trace.append("\tat org.junit.Assert.fail(Assert.java:").append(88 + i)
+                    .append(")\n");
+        }
+        return trace.toString();
+    }
+
+    @Benchmark
+    public Data copyByParsing() {
+        return new Data(results.toString());
+    }
+
+    @Benchmark
+    public Data copy() {
+        return new Data(results);
+    }
+}
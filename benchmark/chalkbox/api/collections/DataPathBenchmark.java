@@ -0,0 +1,88 @@
+package chalkbox.api.collections;
+
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares looking up and storing nested values of a {@link Data}
+ * collection by string key and by precompiled {@link DataPath}.
+ *
+ * The split benchmarks parse the key with a regular expression on every
+ * call, as string keys were handled before paths were cached.
+ *
+ * Run with <code>./gradlew jmh</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DataPathBenchmark {
+
+    private static final String KEY = "extra_data.compilation.compiles";
+    private static final DataPath PATH = DataPath.of(KEY);
+
+    private Data data;
+
+    @Setup
+    public void setUp() {
+        data = new Data();
+        data.set(KEY, true);
+        data.set("extra_data.compilation.output", "Submission successfully compiled");
+    }
+
+    @Benchmark
+    public Object getSplit() {
+        String[] keys = KEY.split("(?<!\\\\)\\.");
+        Object json = data.get(keys[0].replace("\\.", "."));
+        for (int i = 1; i < keys.length; i++) {
+            json = ((JSONObject) json).get(keys[i].replace("\\.", "."));
+        }
+        return json;
+    }
+
+    @Benchmark
+    public Object getString() {
+        return data.get(KEY);
+    }
+
+    @Benchmark
+    public Object getPath() {
+        return data.get(PATH);
+    }
+
+    @Benchmark
+    public Data setSplit() {
+        String[] keys = KEY.split("(?<!\\\\)\\.");
+        JSONObject json = (JSONObject) data.get(keys[0].replace("\\.", "."));
+        for (int i = 1; i < keys.length - 1; i++) {
+            json = (JSONObject) json.get(keys[i].replace("\\.", "."));
+        }
+        json.put(keys[keys.length - 1].replace("\\.", "."), true);
+        return data;
+    }
+
+    @Benchmark
+    public Data setString() {
+        data.set(KEY, true);
+        return data;
+    }
+
+    @Benchmark
+    public Data setPath() {
+        data.set(PATH, true);
+        return data;
+    }
+}
@@ -4,12 +4,51 @@ import chalkbox.engines.ConfigFormatException;
 import chalkbox.engines.Engine;
 import chalkbox.engines.EngineLoader;
 
+import java.io.IOException;
+import java.nio.file.Path;
+
 public class ChalkBox {
     private static final String USAGE = "Incorrect usage:" + System.lineSeparator()
             + "\tchalkbox <box file>" + System.lineSeparator()
+            + "\tchalkbox batch <box file> <submissions dir> <output dir>" + System.lineSeparator()
+            + "\tchalkbox daemon <socket>" + System.lineSeparator()
+            + "\tchalkbox submit <socket> <box file> <submission dir> <output file>" + System.lineSeparator()
+            + "\tchalkbox stop <socket>" + System.lineSeparator()
+            + "\tchalkbox analyse <results dir>..." + System.lineSeparator()
             + "\tchalkbox help <class>";
 
-    public static void main(String[] args) throws ConfigFormatException {
+    public static void main(String[] args) throws ConfigFormatException, IOException {
+
+        if (args.length == 4 && args[0].equals("batch")) {
+            Engine engine = EngineLoader.load(args[1]);
+            engine.runBatch(args[2], args[3]);
+            System.exit(0);
+        }
+
+        if (args.length == 2 && args[0].equals("daemon")) {
+            new GraderDaemon(args[1]).listen();
+            System.exit(0);
+        }
+
+        if (args.length == 5 && args[0].equals("submit")) {
+            String reply = new GraderClient(args[1]).grade(args[2], args[3], args[4]);
+            System.out.println(reply);
+            System.exit(reply.startsWith("OK") ? 0 : 1);
+        }
+
+        if (args.length == 2 && args[0].equals("stop")) {
+            System.out.println(new GraderClient(args[1]).stop());
+            System.exit(0);
+        }
+
+        if (args.length >= 2 && args[0].equals("analyse")) {
+            ResultsAnalytics analytics = new ResultsAnalytics();
+            for (int i = 1; i < args.length; i++) {
+                analytics.addDirectory(Path.of(args[i]));
+            }
+            System.out.println(analytics.report());
+            System.exit(0);
+        }
 
         if (args.length != 1) {
             System.err.println(USAGE);
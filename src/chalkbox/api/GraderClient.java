@@ -0,0 +1,83 @@
+package chalkbox.api;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Thin client that sends a request to a {@link GraderDaemon} and blocks
+ * until the daemon replies.
+ */
+public class GraderClient {
+
+    /** Path of the daemon's socket */
+    private final Path socketPath;
+
+    /**
+     * Creates a client for the daemon listening on the given socket path.
+     *
+     * @param socketPath path of the daemon's Unix domain socket
+     */
+    public GraderClient(String socketPath) {
+        this.socketPath = Path.of(socketPath).toAbsolutePath();
+    }
+
+    /**
+     * Asks the daemon to grade a submission, and waits until the results
+     * JSON file has been written.
+     *
+     * Paths are converted to absolute paths before being sent, since the
+     * daemon may have a different working directory to the client.
+     *
+     * @param boxFile path of the box file to grade with
+     * @param submission path of the directory containing the submission
+     * @param outputFile path to write the results JSON file to
+     * @return the daemon's reply, starting with "OK" on success
+     * @throws IOException if the daemon cannot be reached
+     */
+    public String grade(String boxFile, String submission, String outputFile)
+            throws IOException {
+        return send(String.join(GraderDaemon.SEPARATOR, GraderDaemon.GRADE,
+                new File(boxFile).getAbsolutePath(),
+                new File(submission).getAbsolutePath(),
+                new File(outputFile).getAbsolutePath()));
+    }
+
+    /**
+     * Asks the daemon to shut down.
+     *
+     * @return the daemon's reply
+     * @throws IOException if the daemon cannot be reached
+     */
+    public String stop() throws IOException {
+        return send(GraderDaemon.STOP);
+    }
+
+    /*
+     * Helper to send a single request line and read the reply line.
+     */
+    private String send(String request) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(UnixDomainSocketAddress.of(socketPath));
+
+            Writer out = new OutputStreamWriter(Channels.newOutputStream(channel),
+                    StandardCharsets.UTF_8);
+            out.write(request + "\n");
+            out.flush();
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            String reply = in.readLine();
+            return reply == null ? "ERROR No reply from daemon" : reply;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package chalkbox.api;
+
+import chalkbox.api.collections.Data;
+import chalkbox.api.common.java.Compiler;
+import chalkbox.engines.ConfigFormatException;
+import chalkbox.engines.Engine;
+import chalkbox.engines.EngineLoader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Long-running grader that accepts grading jobs over a Unix domain socket.
+ *
+ * Keeping a single JVM running between jobs avoids paying for JVM startup,
+ * configuration parsing, compiler loading and JIT warm up on every
+ * submission. Engines are loaded once per box file and kept in memory along
+ * with any artefacts they prepare, such as a compiled sample solution. A box
+ * file is reloaded if it has been modified since it was last loaded.
+ *
+ * Each connection carries a single request line, with fields separated by
+ * tabs:
+ * <pre>
+ * GRADE &lt;box file&gt; &lt;submission dir&gt; &lt;output file&gt;
+ * STOP
+ * </pre>
+ * The daemon replies with a single line, either <code>OK &lt;output
+ * file&gt;</code> once the results JSON has been written, or
+ * <code>ERROR &lt;message&gt;</code>. Jobs are graded one at a time, in the
+ * order they are received.
+ *
+ * Relative paths in requests and in box files are resolved against the
+ * working directory of the daemon, so clients should send absolute paths.
+ */
+public class GraderDaemon {
+
+    /** Field separator within a request line */
+    static final String SEPARATOR = "\t";
+
+    /** Request to grade a submission */
+    static final String GRADE = "GRADE";
+
+    /** Request to shut down the daemon */
+    static final String STOP = "STOP";
+
+    /** Path of the socket to listen on */
+    private final Path socketPath;
+
+    /** Engines loaded from each box file, keyed by absolute box file path */
+    private final Map<String, Engine> engines = new HashMap<>();
+
+    /** Last modified time of each box file when its engine was loaded */
+    private final Map<String, Long> loadedAt = new HashMap<>();
+
+    /**
+     * Creates a daemon that will listen on the given socket path.
+     *
+     * @param socketPath path of the Unix domain socket to create
+     */
+    public GraderDaemon(String socketPath) {
+        this.socketPath = Path.of(socketPath).toAbsolutePath();
+    }
+
+    /**
+     * Listens for and grades jobs until a STOP request is received.
+     *
+     * @throws IOException if the socket cannot be created
+     */
+    public void listen() throws IOException {
+        /* Load and warm up the compiler before accepting any jobs */
+        Compiler.warmUp();
+
+        /* Remove a stale socket left behind by a previous daemon */
+        Files.deleteIfExists(socketPath);
+
+        try (ServerSocketChannel server = ServerSocketChannel.open(
+                StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socketPath));
+            System.out.println("Listening on " + socketPath);
+
+            boolean running = true;
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    running = handle(client);
+                } catch (IOException e) {
+                    System.err.println("Error communicating with client");
+                    e.printStackTrace();
+                }
+            }
+        } finally {
+            Files.deleteIfExists(socketPath);
+            for (Engine engine : engines.values()) {
+                close(engine);
+            }
+            engines.clear();
+        }
+    }
+
+    /*
+     * Helper to read a single request from a client and reply to it.
+     * Returns false iff the daemon should stop.
+     */
+    private boolean handle(SocketChannel client) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                Channels.newInputStream(client), StandardCharsets.UTF_8));
+        Writer out = new OutputStreamWriter(Channels.newOutputStream(client),
+                StandardCharsets.UTF_8);
+
+        String request = in.readLine();
+        if (request == null) {
+            return true;
+        }
+
+        String[] fields = request.split(SEPARATOR);
+        String reply;
+        boolean running = true;
+        if (fields[0].equals(STOP)) {
+            reply = "OK";
+            running = false;
+        } else if (fields[0].equals(GRADE) && fields.length == 4) {
+            reply = grade(fields[1], fields[2], fields[3]);
+        } else {
+            reply = "ERROR Malformed request";
+        }
+
+        /* Replies are a single line, whatever the message contains */
+        out.write(reply.replaceAll("\\R", " ") + "\n");
+        out.flush();
+        return running;
+    }
+
+    /*
+     * Helper to grade a single submission, returning the reply to send.
+     */
+    private String grade(String boxFile, String submission, String outputFile) {
+        Engine engine;
+        try {
+            engine = getEngine(boxFile);
+        } catch (ConfigFormatException e) {
+            return "ERROR Invalid box file: " + e.getMessage();
+        } catch (RuntimeException | Error e) {
+            e.printStackTrace();
+            return "ERROR Unable to load box file: " + e;
+        }
+
+        System.out.println("Grading " + submission);
+        Data results;
+        try {
+            results = engine.grade(submission, outputFile);
+        } catch (RuntimeException | Error e) {
+            /* A single submission must not bring down the daemon */
+            e.printStackTrace();
+            return "ERROR " + e;
+        }
+        if (results == null) {
+            return "ERROR Unable to grade submission";
+        }
+        return "OK " + outputFile;
+    }
+
+    /*
+     * Helper to get the engine for a box file, loading it if it has not been
+     * loaded before or has been modified since it was loaded.
+     */
+    private Engine getEngine(String boxFile) throws ConfigFormatException {
+        File file = new File(boxFile).getAbsoluteFile();
+        String key = file.getPath();
+        long modified = file.lastModified();
+
+        Engine engine = engines.get(key);
+        if (engine == null || loadedAt.get(key) != modified) {
+            Engine loaded = EngineLoader.load(key);
+            if (engine != null) {
+                close(engine);
+            }
+            engine = loaded;
+            engines.put(key, engine);
+            loadedAt.put(key, modified);
+        }
+        return engine;
+    }
+
+    /*
+     * Helper to close an engine that is no longer used, so the executors and
+     * worker JVMs of its stages do not outlive it.
+     */
+    private static void close(Engine engine) {
+        try {
+            engine.close();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+}
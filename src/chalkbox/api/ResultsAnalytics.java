@@ -0,0 +1,327 @@
+package chalkbox.api;
+
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Summarises the results of a cohort of submissions, such as the results
+ * files written by a batch run or downloaded from Gradescope.
+ *
+ * The report includes the distribution of submission scores, the rate at
+ * which each test was passed with full marks, and the rate at which each
+ * faulty solution was detected by submitted JUnit tests. Tests with a
+ * maximum score of zero cannot be failed, so they are left out of every
+ * score and listed separately.
+ *
+ * Results files are streamed through a pull parser rather than loaded, and
+ * aggregated into counters for each test name, so memory use depends on the
+ * number of distinct tests and the size of the largest results file, not the
+ * number of files.
+ */
+public class ResultsAnalytics {
+
+    /** Prefix of the names of JUnit results for each solution */
+    private static final String JUNIT_PREFIX = "JUnit (";
+
+    /** Number of buckets in the score distribution, each 10% wide */
+    private static final int BUCKETS = 10;
+
+    /** Counters for a single test, across every submission it appears in */
+    private static class TestStats {
+        private int count = 0;
+        private int fullMarks = 0;
+        private double score = 0;
+        private double maxScore = 0;
+    }
+
+    /** Score of a single test in the results file being read */
+    private static class TestScore {
+        private final String name;
+        private final double score;
+        private final double maxScore;
+
+        private TestScore(String name, double score, double maxScore) {
+            this.name = name;
+            this.score = score;
+            this.maxScore = maxScore;
+        }
+    }
+
+    /** Counters for each test name, in alphabetical order */
+    private final Map<String, TestStats> tests = new TreeMap<>();
+
+    /** Number of appearances of each test with a maximum score of zero */
+    private final Map<String, Integer> ungraded = new TreeMap<>();
+
+    /* Number of results files read, and the number which could not be read */
+    private int submissions = 0;
+    private int unreadable = 0;
+
+    /* Distribution of the percentage score of each submission */
+    private final int[] distribution = new int[BUCKETS];
+    private double percentTotal = 0;
+    private double percentMin = Double.MAX_VALUE;
+    private double percentMax = 0;
+
+    /** Parser reused for every results file */
+    private final JSONParser parser = new JSONParser();
+
+    /**
+     * Reads every results file (any .json file other than a hidden file, such
+     * as a batch summary) within a directory and its subdirectories.
+     *
+     * @param directory directory containing results files
+     * @throws IOException if the directory cannot be read
+     */
+    public void addDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            Iterator<Path> iterator = files.iterator();
+            while (iterator.hasNext()) {
+                Path file = iterator.next();
+                String name = file.getFileName().toString();
+                if (Files.isRegularFile(file) && name.endsWith(".json")
+                        && !name.startsWith(".")) {
+                    add(file);
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Reads a single results file. Files which cannot be read or parsed are
+     * counted as unreadable, and do not contribute to any other counts.
+     *
+     * @param file results file to read
+     */
+    public void add(Path file) {
+        ResultsHandler handler = new ResultsHandler();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            parser.reset();
+            parser.parse(reader, handler);
+        } catch (IOException | ParseException | RuntimeException e) {
+            unreadable++;
+            return;
+        }
+
+        submissions++;
+        double score = 0;
+        double maxScore = 0;
+        for (TestScore test : handler.scores) {
+            if (test.maxScore <= 0) {
+                ungraded.merge(test.name, 1, Integer::sum);
+                continue;
+            }
+            TestStats stats = tests.computeIfAbsent(test.name, name -> new TestStats());
+            stats.count++;
+            stats.score += test.score;
+            stats.maxScore += test.maxScore;
+            if (test.score >= test.maxScore) {
+                stats.fullMarks++;
+            }
+            score += test.score;
+            maxScore += test.maxScore;
+        }
+        if (handler.score != null) {
+            /* Gradescope uses the overall score instead of the tests' if given */
+            score = handler.score;
+        }
+
+        double percent = maxScore > 0 ? Math.min(100, 100 * score / maxScore) : 0;
+        distribution[Math.min(BUCKETS - 1, (int) (percent / (100 / BUCKETS)))]++;
+        percentTotal += percent;
+        percentMin = Math.min(percentMin, percent);
+        percentMax = Math.max(percentMax, percent);
+    }
+
+    /**
+     * Makes a report of the results read so far.
+     *
+     * @return the report, as lines of text
+     */
+    public String report() {
+        StringJoiner report = new StringJoiner("\n");
+        report.add("Submissions: " + submissions
+                + (unreadable > 0 ? " (" + unreadable + " unreadable)" : ""));
+        if (submissions == 0) {
+            return report.toString();
+        }
+
+        report.add("");
+        report.add(String.format("Scores: mean %.1f%%, min %.1f%%, max %.1f%%",
+                percentTotal / submissions, percentMin, percentMax));
+        for (int i = 0; i < BUCKETS; i++) {
+            int from = i * (100 / BUCKETS);
+            int to = i == BUCKETS - 1 ? 100 : from + (100 / BUCKETS);
+            report.add(String.format("  %3d-%3d%%  %5d  %s", from, to, distribution[i],
+                    "#".repeat((int) Math.round(50d * distribution[i] / submissions)))
+                    .stripTrailing());
+        }
+
+        report.add("");
+        report.add("Tests (rate of full marks, mean score):");
+        for (Map.Entry<String, TestStats> entry : tests.entrySet()) {
+            if (!entry.getKey().startsWith(JUNIT_PREFIX)) {
+                report.add(format(entry.getKey(), entry.getValue()));
+            }
+        }
+
+        List<String> junit = new ArrayList<>();
+        for (Map.Entry<String, TestStats> entry : tests.entrySet()) {
+            if (entry.getKey().startsWith(JUNIT_PREFIX)) {
+                junit.add(format(entry.getKey(), entry.getValue()));
+            }
+        }
+        if (!junit.isEmpty()) {
+            report.add("");
+            report.add("Faulty solutions (rate of detection, mean score):");
+            junit.forEach(report::add);
+        }
+
+        if (!ungraded.isEmpty()) {
+            report.add("");
+            report.add("Ungraded tests (maximum score of zero, not counted above):");
+            for (Map.Entry<String, Integer> entry : ungraded.entrySet()) {
+                report.add(String.format("  %s: %d", entry.getKey(), entry.getValue()));
+            }
+        }
+        return report.toString();
+    }
+
+    /*
+     * Helper to format the line of the report for a test.
+     */
+    private static String format(String name, TestStats stats) {
+        return String.format("  %s: %.1f%% (%d/%d), %.3f/%.3f", name,
+                100d * stats.fullMarks / stats.count, stats.fullMarks, stats.count,
+                stats.score / stats.count, stats.maxScore / stats.count);
+    }
+
+    /**
+     * Collects the overall score and the name and score of each test in a
+     * results file as it is parsed, skipping everything else, such as the
+     * output of each test.
+     */
+    private static class ResultsHandler implements ContentHandler {
+
+        /** Scored tests in the file */
+        private final List<TestScore> scores = new ArrayList<>();
+
+        /** Overall score of the submission, if given */
+        private Double score;
+
+        /** Keys of the object entries being parsed, innermost first */
+        private final Deque<String> keys = new ArrayDeque<>();
+
+        /** Number of objects and arrays being parsed */
+        private int depth = 0;
+
+        /* Whether the tests array or a test within it is being parsed */
+        private boolean inTests = false;
+        private boolean inTest = false;
+
+        /* Values of the test being parsed */
+        private String name;
+        private Number testScore;
+        private Number testMaxScore;
+
+        @Override
+        public void startJSON() {
+        }
+
+        @Override
+        public void endJSON() {
+        }
+
+        @Override
+        public boolean startObject() {
+            depth++;
+            if (inTests && depth == 3) {
+                inTest = true;
+                name = null;
+                testScore = null;
+                testMaxScore = null;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean endObject() {
+            if (inTest && depth == 3) {
+                inTest = false;
+                if (name != null && testScore != null && testMaxScore != null) {
+                    scores.add(new TestScore(name, testScore.doubleValue(),
+                            testMaxScore.doubleValue()));
+                }
+            }
+            depth--;
+            return true;
+        }
+
+        @Override
+        public boolean startObjectEntry(String key) {
+            keys.push(key);
+            return true;
+        }
+
+        @Override
+        public boolean endObjectEntry() {
+            keys.pop();
+            return true;
+        }
+
+        @Override
+        public boolean startArray() {
+            depth++;
+            if (depth == 2 && keys.size() == 1 && "tests".equals(keys.peek())) {
+                inTests = true;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean endArray() {
+            if (depth == 2) {
+                inTests = false;
+            }
+            depth--;
+            return true;
+        }
+
+        @Override
+        public boolean primitive(Object value) {
+            String key = keys.peek();
+            if (depth == 1 && keys.size() == 1 && "score".equals(key)
+                    && value instanceof Number) {
+                score = ((Number) value).doubleValue();
+            } else if (inTest && depth == 3 && keys.size() == 2) {
+                if ("name".equals(key) && value instanceof String) {
+                    name = (String) value;
+                } else if ("score".equals(key) && value instanceof Number) {
+                    testScore = (Number) value;
+                } else if ("max_score".equals(key) && value instanceof Number) {
+                    testMaxScore = (Number) value;
+                }
+            }
+            return true;
+        }
+    }
+}
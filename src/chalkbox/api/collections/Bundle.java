@@ -8,6 +8,7 @@ import org.apache.commons.io.FileUtils;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.MessageDigest;
@@ -291,16 +292,26 @@ public class Bundle {
     }
 
     /**
-     * Produce a hash for this bundle based on the combined hash of all files
+     * Produce a hash for this bundle based on the path and hash of every file
      * within the bundle.
      *
+     * Files are combined in order of their paths, so the hash does not depend
+     * on the order they are listed in, but bundles with the same contents
+     * under different paths have different hashes.
+     *
      * @return The string representation of the SHA-256 hash.
      * @throws IOException If any of the source files couldn't be loaded.
      */
     public String hash() throws IOException {
+        List<String> entries = new ArrayList<>();
+        for (String filename : getFileNames("")) {
+            entries.add(filename + '\0' + getFile(filename).toHash());
+        }
+        Collections.sort(entries);
+
         StringBuilder hashString = new StringBuilder();
-        for (SourceFile file : getFiles()) {
-            hashString.append(file.toHash());
+        for (String entry : entries) {
+            hashString.append(entry).append('\n');
         }
 
         MessageDigest digest;
@@ -310,7 +321,8 @@ public class Bundle {
             return null; // will surely never occur
         }
 
-        byte[] hash = digest.digest(hashString.toString().getBytes());
+        byte[] hash = digest.digest(hashString.toString()
+                .getBytes(StandardCharsets.UTF_8));
         return Base64.getEncoder().encodeToString(hash);
     }
 
@@ -1,7 +1,10 @@
 package chalkbox.api.collections;
 
+import org.json.simple.JSONArray;
+
 import java.io.File;
 import java.io.IOException;
+import java.util.Map;
 
 /**
  * A collection contains a folder bundle, associated metadata and result data
@@ -10,6 +13,7 @@ public class Collection {
     private Bundle source;
     private Bundle working;
     private Data results;
+    private Map<String, byte[]> classes = Map.of();
 
     /**
      * Construct a new collection with a set of metadata
@@ -27,6 +31,55 @@ public class Collection {
         this.results = metadata;
     }
 
+    /**
+     * Construct a collection from existing bundles and results
+     */
+    private Collection(Bundle source, Bundle working, Data results) {
+        this.source = source;
+        this.working = working;
+        this.results = results;
+    }
+
+    /**
+     * Create a view of this collection that shares its source and working
+     * bundles, but has its own copy of the results with an empty "tests"
+     * array.
+     *
+     * Allows a processing stage to record results independently of other
+     * stages, with the results merged back using {@link #join(Collection)}.
+     *
+     * @return a new collection sharing this collection's bundles
+     */
+    public Collection fork() {
+        Data results = new Data(this.results);
+        results.set("tests", new JSONArray());
+        Collection fork = new Collection(source, working, results);
+        fork.classes = this.classes;
+        return fork;
+    }
+
+    /**
+     * Merge the results of a collection created by {@link #fork()} back into
+     * this collection.
+     *
+     * Tests recorded in the fork are appended to this collection's "tests"
+     * array, and all other values are merged into this collection's results.
+     *
+     * @param fork a collection forked from this collection
+     */
+    public void join(Collection fork) {
+        Data forkResults = fork.getResults();
+        JSONArray forkTests = (JSONArray) forkResults.get("tests");
+        forkResults.delete("tests");
+
+        JSONArray tests = (JSONArray) this.results.get("tests");
+        this.results.merge(forkResults);
+        if (tests != null && forkTests != null) {
+            tests.addAll(forkTests);
+        }
+        this.results.set("tests", tests != null ? tests : forkTests);
+    }
+
     public Bundle getSource() {
         return source;
     }
@@ -43,6 +96,18 @@ public class Collection {
         this.working = working;
     }
 
+    /**
+     * @return byte code of the compiled submission keyed by binary class
+     * name, empty if the submission has not been compiled
+     */
+    public Map<String, byte[]> getClasses() {
+        return classes;
+    }
+
+    public void setClasses(Map<String, byte[]> classes) {
+        this.classes = classes;
+    }
+
     @Override
     public String toString() {
         return results.toString() + " " + source.toString() + " " + working.toString();
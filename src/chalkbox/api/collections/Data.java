@@ -1,19 +1,29 @@
 package chalkbox.api.collections;
 
+import org.json.simple.JSONArray;
+import org.json.simple.JSONAware;
 import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
  * A mapping of keys to values in a JSON format
+ *
+ * A data collection can be written as JSON directly to a stream with
+ * {@link #writeJSONString(Writer)}, without building the whole document as
+ * a string first, including when it is nested within other JSON values.
  */
-public class Data {
+public class Data implements JSONAware, JSONStreamAware {
     private JSONObject json;
 
     /**
@@ -36,12 +46,59 @@ public class Data {
     }
 
     /**
-     * Construct a data collection that is a copy of the parameter
+     * Construct a data collection that is a deep copy of the parameter
+     *
+     * Nested JSON objects, arrays, data collections and text values are
+     * copied, so changes to the copy never affect the original. Immutable
+     * values, such as strings, numbers and booleans, are shared.
      *
      * @param data The data to copy
      */
     public Data(Data data) {
-        this(data.json.toJSONString());
+        this.json = copy(data.json);
+    }
+
+    /*
+     * Helper to deep copy a JSON object.
+     */
+    private static JSONObject copy(JSONObject json) {
+        JSONObject copy = new JSONObject();
+        for (Object key : json.keySet()) {
+            copy.put(key, copyValue(json.get(key)));
+        }
+        return copy;
+    }
+
+    /*
+     * Helper to deep copy a value of a JSON object or array.
+     */
+    private static Object copyValue(Object value) {
+        if (value instanceof Data) {
+            return new Data((Data) value);
+        }
+        if (value instanceof Text) {
+            return new Text(value.toString());
+        }
+        if (value instanceof JSONObject) {
+            return copy((JSONObject) value);
+        }
+        if (value instanceof Map) {
+            JSONObject copy = new JSONObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                copy.put(entry.getKey(), copyValue(entry.getValue()));
+            }
+            return copy;
+        }
+        if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            JSONArray copy = new JSONArray();
+            copy.ensureCapacity(list.size());
+            for (Object element : list) {
+                copy.add(copyValue(element));
+            }
+            return copy;
+        }
+        return value;
     }
 
     /**
@@ -105,6 +162,20 @@ public class Data {
         return false;
     }
 
+    /**
+     * Return a boolean value at a path, if it doesn't hold a boolean returns false.
+     *
+     * @param path The path to search for
+     * @return true if path holds a value true boolean value
+     */
+    public boolean is(DataPath path) {
+        Object value = get(path);
+        if (value instanceof Boolean) {
+            return (boolean) value;
+        }
+        return false;
+    }
+
     /**
      * Get a value stored at the given key
      *
@@ -115,11 +186,20 @@ public class Data {
         if (!key.contains(".")) {
             return json.get(key);
         }
+        return get(DataPath.of(key));
+    }
 
-        String[] keys = key.split("(?<!\\\\)\\.");
+    /**
+     * Get a value stored at the given path
+     *
+     * @param path The path to lookup
+     * @return The value stored in this data collection
+     */
+    public Object get(DataPath path) {
         JSONObject json = this.json;
-        for (int i = 0; i < keys.length - 1; i++) {
-            String keyValue = keys[i].replace("\\.", ".");
+        int last = path.size() - 1;
+        for (int i = 0; i < last; i++) {
+            String keyValue = path.segment(i);
             if (!json.containsKey(keyValue)) {
                 return null;
             } else {
@@ -131,7 +211,7 @@ public class Data {
                 }
             }
         }
-        return json.get(keys[keys.length - 1].replace("\\.", "."));
+        return json.get(path.segment(last));
     }
 
     /**
@@ -145,16 +225,30 @@ public class Data {
             json.put(key, value);
             return;
         }
+        set(DataPath.of(key), value);
+    }
+
+    /**
+     * Store a value at the given path
+     *
+     * @param path The path to store value at
+     * @param value The value to store
+     */
+    public void set(DataPath path, Object value) {
+        int last = path.size() - 1;
+        if (last == 0) {
+            json.put(path.segment(0), value);
+            return;
+        }
 
         if (value instanceof Data) {
             value = ((Data) value).json;
         }
 
-        String[] keys = key.split("(?<!\\\\)\\.");
         JSONObject oldJson = this.json;
         JSONObject json = this.json;
-        for (int i = 0; i < keys.length - 1; i++) {
-            String keyValue = keys[i].replace("\\.", ".");
+        for (int i = 0; i < last; i++) {
+            String keyValue = path.segment(i);
             if (!oldJson.containsKey(keyValue)) {
                 json = new JSONObject();
             } else {
@@ -163,7 +257,60 @@ public class Data {
             oldJson.put(keyValue, json);
             oldJson = json;
         }
-        json.put(keys[keys.length - 1].replace("\\.", "."), value);
+        json.put(path.segment(last), value);
+    }
+
+    /**
+     * Get the text value stored at the given key, to append to.
+     *
+     * If the key holds any other value, it is replaced with a text value
+     * starting with that value's string representation. If the key holds
+     * no value, an empty text value is stored at it.
+     *
+     * @param key The key of the text value
+     * @return The text value stored at the key
+     */
+    public Text text(String key) {
+        Object value = get(key);
+        if (value instanceof Text) {
+            return (Text) value;
+        }
+        Text text = new Text(value == null ? "" : value.toString());
+        set(key, text);
+        return text;
+    }
+
+    /**
+     * Merges the values of another data collection into this one.
+     *
+     * Nested JSON objects are merged recursively, any other value in the
+     * other data collection replaces the value at the same key in this one.
+     *
+     * @param other The data to merge into this data collection
+     */
+    public void merge(Data other) {
+        merge(this.json, other.json);
+    }
+
+    /*
+     * Helper to recursively merge the entries of one JSON object into another.
+     */
+    private static void merge(JSONObject target, JSONObject source) {
+        for (Object key : source.keySet()) {
+            Object value = source.get(key);
+            if (value instanceof Data) {
+                value = ((Data) value).json;
+            }
+            Object existing = target.get(key);
+            if (existing instanceof Data) {
+                existing = ((Data) existing).json;
+            }
+            if (value instanceof JSONObject && existing instanceof JSONObject) {
+                merge((JSONObject) existing, (JSONObject) value);
+            } else {
+                target.put(key, value);
+            }
+        }
     }
 
     /**
@@ -172,7 +319,48 @@ public class Data {
      * @param key key to delete value at
      */
     public void delete(String key) {
-        this.json.remove(key);
+        if (!key.contains(".")) {
+            this.json.remove(key);
+            return;
+        }
+        delete(DataPath.of(key));
+    }
+
+    /**
+     * Deletes the value at the given path.
+     *
+     * @param path path to delete value at
+     */
+    public void delete(DataPath path) {
+        JSONObject json = this.json;
+        int last = path.size() - 1;
+        for (int i = 0; i < last; i++) {
+            Object inner = json.get(path.segment(i));
+            if (inner instanceof JSONObject) {
+                json = (JSONObject) inner;
+            } else if (inner instanceof Data) {
+                json = ((Data) inner).json;
+            } else {
+                return;
+            }
+        }
+        json.remove(path.segment(last));
+    }
+
+    /**
+     * Writes this data collection as JSON to the given writer.
+     *
+     * @param out The writer to write to
+     * @throws IOException If writing fails
+     */
+    @Override
+    public void writeJSONString(Writer out) throws IOException {
+        this.json.writeJSONString(out);
+    }
+
+    @Override
+    public String toJSONString() {
+        return this.json.toJSONString();
     }
 
     @Override
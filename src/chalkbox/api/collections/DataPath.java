@@ -0,0 +1,107 @@
+package chalkbox.api.collections;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * A parsed key of a {@link Data} collection.
+ *
+ * Keys are made up of the keys of nested JSON objects separated by '.',
+ * where a '.' that is part of a key is escaped as "\.". For example
+ * "extra_data.compilation.compiles" is the key "compiles" of the object at
+ * "compilation" of the object at "extra_data".
+ *
+ * Parsing a key is relatively expensive, so paths used repeatedly should be
+ * parsed once and stored in a constant. String keys passed to {@link Data}
+ * are parsed through a bounded cache, see {@link #of(String)}.
+ */
+public final class DataPath {
+
+    /** Separator between keys, a '.' that is not escaped */
+    private static final Pattern SEPARATOR = Pattern.compile("(?<!\\\\)\\.");
+
+    /** Maximum number of parsed keys to cache */
+    private static final int CACHE_SIZE = 1024;
+
+    /** Cache of parsed keys */
+    private static final Map<String, DataPath> CACHE = new ConcurrentHashMap<>();
+
+    /** Key that was parsed */
+    private final String key;
+
+    /** Unescaped keys of each nested JSON object, outermost first */
+    private final String[] segments;
+
+    private DataPath(String key) {
+        this.key = key;
+        this.segments = SEPARATOR.split(key);
+        if (segments.length == 0) {
+            throw new IllegalArgumentException("Invalid data key: " + key);
+        }
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = segments[i].replace("\\.", ".");
+        }
+    }
+
+    /**
+     * Parses a key, reusing an earlier parse of the same key if it has been
+     * cached.
+     *
+     * Once the cache holds {@value #CACHE_SIZE} keys, further keys are
+     * parsed without being cached, so generated keys cannot grow the cache
+     * without bound.
+     *
+     * @param key key to parse
+     * @return the parsed key
+     * @throws IllegalArgumentException if the key has no segments, e.g. "."
+     */
+    public static DataPath of(String key) {
+        DataPath path = CACHE.get(key);
+        if (path != null) {
+            return path;
+        }
+        path = new DataPath(key);
+        if (CACHE.size() < CACHE_SIZE) {
+            CACHE.putIfAbsent(key, path);
+        }
+        return path;
+    }
+
+    /**
+     * @return number of nested keys in this path
+     */
+    public int size() {
+        return segments.length;
+    }
+
+    /**
+     * @param index index of a nested key, with 0 as the outermost
+     * @return the unescaped nested key
+     */
+    public String segment(int index) {
+        return segments[index];
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof DataPath)) {
+            return false;
+        }
+        return Arrays.equals(segments, ((DataPath) o).segments);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(segments);
+    }
+
+    @Override
+    public String toString() {
+        return key;
+    }
+}
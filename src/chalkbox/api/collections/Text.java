@@ -0,0 +1,89 @@
+package chalkbox.api.collections;
+
+import org.json.simple.JSONAware;
+import org.json.simple.JSONStreamAware;
+import org.json.simple.JSONValue;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A string value of a {@link Data} collection that is built up by
+ * appending to it, such as the output of a test result.
+ *
+ * Appending to a text value does not copy what has been appended so far,
+ * unlike concatenating to a string value. The text is written as a JSON
+ * string when the data collection it belongs to is output.
+ */
+public class Text implements JSONAware, JSONStreamAware {
+
+    /** Number of characters to escape at a time when writing */
+    private static final int CHUNK_SIZE = 8192;
+
+    private final StringBuilder text;
+
+    /**
+     * Creates an empty text value.
+     */
+    public Text() {
+        this("");
+    }
+
+    /**
+     * Creates a text value starting with the given string.
+     *
+     * @param text initial contents
+     */
+    public Text(String text) {
+        this.text = new StringBuilder(text);
+    }
+
+    /**
+     * Appends the string representation of a value to the end of the text.
+     *
+     * @param value value to append
+     * @return this text value
+     */
+    public synchronized Text append(Object value) {
+        text.append(value);
+        return this;
+    }
+
+    /**
+     * @return number of characters in the text
+     */
+    public synchronized int length() {
+        return text.length();
+    }
+
+    /**
+     * @return true iff no text has been appended
+     */
+    public synchronized boolean isEmpty() {
+        return text.length() == 0;
+    }
+
+    @Override
+    public synchronized void writeJSONString(Writer out) throws IOException {
+        out.write('"');
+        /* Escaping is per character, so chunks can be escaped separately */
+        for (int start = 0; start < text.length(); start += CHUNK_SIZE) {
+            int end = Math.min(text.length(), start + CHUNK_SIZE);
+            out.write(JSONValue.escape(text.substring(start, end)));
+        }
+        out.write('"');
+    }
+
+    @Override
+    public synchronized String toJSONString() {
+        return "\"" + JSONValue.escape(text.toString()) + "\"";
+    }
+
+    /**
+     * @return the text appended so far
+     */
+    @Override
+    public synchronized String toString() {
+        return text.toString();
+    }
+}
@@ -0,0 +1,339 @@
+package chalkbox.api.common;
+
+import chalkbox.api.collections.Bundle;
+import chalkbox.api.collections.Data;
+import chalkbox.api.files.TempFiles;
+import chalkbox.engines.Configuration;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Persistent cache of the results of each processing stage, so that a
+ * resubmission only reruns the stages whose inputs have changed.
+ *
+ * Each stage declares the files of a submission it depends on. Results are
+ * keyed by the stage name, the hash of each of those files (see
+ * {@link chalkbox.api.files.SourceFile#toHash()}) and a description of the
+ * assignment configuration, including the contents of the sample solution,
+ * tests and other files it refers to. For example, a stage that only reads
+ * the <code>src/</code> directory of a submission reuses its results when
+ * only the <code>test/</code> directory has changed.
+ *
+ * An entry records the changes a stage made to the results of a
+ * submission: the tests it added and the other values it set. Entries are
+ * written to a temporary file and atomically renamed, so a partially written
+ * entry is never used, even if several processes share the same cache.
+ */
+public class ResultCache {
+
+    /** Logger */
+    private static final Logger LOGGER = Logger.getLogger(ResultCache.class.getName());
+
+    /** Stage input of every file in a submission */
+    public static final Predicate<String> ALL_FILES = path -> true;
+
+    /** Stage input of every Java source file in a submission */
+    public static final Predicate<String> JAVA_FILES = path -> path.endsWith(".java");
+
+    /** Root directory of the cache */
+    private final File root;
+
+    /** Hash of the assignment configuration results depend on */
+    private final String configuration;
+
+    /**
+     * Creates a cache stored in the given directory.
+     *
+     * If the directory does not exist it will attempt to be created.
+     *
+     * @param root path of the cache directory
+     * @param configuration description of everything other than the
+     *                      submission that results depend on, see
+     *                      {@link #describe(Object)}
+     */
+    public ResultCache(String root, String configuration) {
+        this.root = new File(root).getAbsoluteFile();
+        this.configuration = hash(configuration + "\n" + Runtime.version());
+        if (!this.root.exists() && !this.root.mkdirs()) {
+            LOGGER.warning("Unable to create result cache " + root);
+        }
+    }
+
+    /**
+     * Creates a stage input of the files within a directory of a submission.
+     *
+     * @param directory path of the directory relative to the submission,
+     *                  using '/' as the separator
+     * @return input matching every file within the directory
+     */
+    public static Predicate<String> directory(String directory) {
+        String prefix = directory.endsWith("/") ? directory : directory + "/";
+        return path -> path.startsWith(prefix);
+    }
+
+    /**
+     * Computes the key of the results of a stage for a submission.
+     *
+     * @param stage name of the stage
+     * @param source source files of the submission
+     * @param inputs matches the paths of the files the stage depends on,
+     *               relative to the submission and using '/' as the separator
+     * @return key of the stage's results
+     * @throws IOException if an input file cannot be read
+     */
+    public String key(String stage, Bundle source, Predicate<String> inputs)
+            throws IOException {
+        List<String> fileNames = new ArrayList<>(source.getFileNames());
+        fileNames.sort(Comparator.naturalOrder());
+
+        StringJoiner key = new StringJoiner("\n");
+        key.add(stage);
+        key.add(configuration);
+        for (String fileName : fileNames) {
+            String path = fileName.replace(File.separatorChar, '/');
+            if (inputs.test(path)) {
+                key.add(path + " " + source.getFile(fileName).toHash());
+            }
+        }
+        return hash(key.toString());
+    }
+
+    /**
+     * @param key key of a stage's results
+     * @return true iff results are cached under the key
+     */
+    public boolean contains(String key) {
+        return Files.isRegularFile(root.toPath().resolve(key + ".json"));
+    }
+
+    /**
+     * Applies the cached changes of a stage to the results of a submission.
+     *
+     * @param key key of the stage's results
+     * @param results results of the submission to apply the changes to
+     * @return true iff the changes were cached and have been applied
+     */
+    public boolean restore(String key, Data results) {
+        Path entry = root.toPath().resolve(key + ".json");
+        if (!Files.isRegularFile(entry)) {
+            return false;
+        }
+        JSONObject changes;
+        try {
+            changes = parse(Files.readString(entry, StandardCharsets.UTF_8));
+        } catch (IOException | ParseException e) {
+            LOGGER.warning("Unable to read result cache entry " + key);
+            return false;
+        }
+
+        LOGGER.finest("Result cache hit " + key);
+        JSONArray tests = (JSONArray) results.get("tests");
+        JSONArray addedTests = (JSONArray) changes.get("tests");
+        if (tests == null) {
+            results.set("tests", addedTests);
+        } else {
+            tests.addAll(addedTests);
+        }
+        results.merge(new Data(changes.get("results").toString()));
+        return true;
+    }
+
+    /**
+     * Stores the changes a stage made to the results of a submission.
+     *
+     * Stages may only add tests to the end of the tests array and set
+     * values, not remove values.
+     *
+     * @param key key of the stage's results
+     * @param before results of the submission before the stage ran
+     * @param after results of the submission after the stage ran
+     */
+    public void store(String key, Data before, Data after) {
+        JSONObject changes = new JSONObject();
+        JSONObject beforeJson;
+        JSONObject afterJson;
+        try {
+            beforeJson = parse(before.toString());
+            afterJson = parse(after.toString());
+        } catch (ParseException e) {
+            LOGGER.warning("Unable to store result cache entry " + key);
+            return;
+        }
+
+        JSONArray beforeTests = (JSONArray) beforeJson.remove("tests");
+        JSONArray afterTests = (JSONArray) afterJson.remove("tests");
+        JSONArray addedTests = new JSONArray();
+        if (afterTests != null) {
+            int existing = beforeTests == null ? 0 : beforeTests.size();
+            addedTests.addAll(afterTests.subList(existing, afterTests.size()));
+        }
+        changes.put("tests", addedTests);
+        changes.put("results", changes(beforeJson, afterJson));
+
+        try {
+            Path temp = TempFiles.createFile(root.toPath(), key, ".tmp");
+            Files.writeString(temp, changes.toJSONString(), StandardCharsets.UTF_8);
+            try {
+                Files.move(temp, root.toPath().resolve(key + ".json"),
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException | AtomicMoveNotSupportedException e) {
+                /* Another process stored the same entry first, keep that one */
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            LOGGER.warning("Unable to store result cache entry " + key + ": " + e);
+        }
+    }
+
+    /**
+     * Describes a configuration value, for use in the configuration the
+     * cache is created with.
+     *
+     * Strings naming an existing file or directory are described by a hash
+     * of the file or directory's contents, so results are not reused once a
+     * sample solution or test they depend on changes. Configuration objects
+     * are described by the values of their fields, and collections and maps
+     * by their elements. Other objects, such as caches and compiled
+     * artefacts built from the configuration, are ignored.
+     *
+     * @param value configuration value to describe
+     * @return description of the value
+     * @throws IOException if a file or directory named by the value cannot
+     * be read
+     */
+    public static String describe(Object value) throws IOException {
+        if (value == null) {
+            return "null";
+        }
+        if (value instanceof String) {
+            File file = new File((String) value);
+            return file.exists() ? value + "#" + hash(file) : (String) value;
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            return value.toString();
+        }
+        if (value instanceof Collection) {
+            StringJoiner joiner = new StringJoiner(", ", "[", "]");
+            for (Object element : (Collection<?>) value) {
+                joiner.add(describe(element));
+            }
+            return joiner.toString();
+        }
+        if (value instanceof Map) {
+            StringJoiner joiner = new StringJoiner(", ", "{", "}");
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                joiner.add(describe(entry.getKey()) + "=" + describe(entry.getValue()));
+            }
+            return joiner.toString();
+        }
+        if (!(value instanceof Configuration)) {
+            return "";
+        }
+
+        /* Describe the fields of configuration objects in a stable order */
+        Map<String, String> fields = new TreeMap<>();
+        for (Class<?> type = value.getClass(); type != Object.class;
+                type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                field.setAccessible(true);
+                try {
+                    fields.put(type.getName() + "." + field.getName(),
+                            describe(field.get(value)));
+                } catch (IllegalAccessException e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+        return value.getClass().getName() + fields;
+    }
+
+    /*
+     * Helper to recursively find the values of one JSON object that are new
+     * or different in another.
+     */
+    private static JSONObject changes(JSONObject before, JSONObject after) {
+        JSONObject changes = new JSONObject();
+        for (Object key : after.keySet()) {
+            Object value = after.get(key);
+            Object existing = before.get(key);
+            if (value instanceof JSONObject && existing instanceof JSONObject) {
+                JSONObject nested = changes((JSONObject) existing, (JSONObject) value);
+                if (!nested.isEmpty()) {
+                    changes.put(key, nested);
+                }
+            } else if (existing == null || !existing.equals(value)) {
+                changes.put(key, value);
+            }
+        }
+        return changes;
+    }
+
+    private static JSONObject parse(String json) throws ParseException {
+        return (JSONObject) new JSONParser().parse(json);
+    }
+
+    /*
+     * Helper to hash the contents of a file, or the names and contents of
+     * every file within a directory.
+     */
+    private static String hash(File file) throws IOException {
+        MessageDigest digest = digest();
+        if (file.isFile()) {
+            digest.update(Files.readAllBytes(file.toPath()));
+        } else {
+            Path directory = file.toPath();
+            List<Path> files;
+            try (Stream<Path> paths = Files.walk(directory)) {
+                files = paths.filter(Files::isRegularFile).sorted().toList();
+            }
+            for (Path path : files) {
+                digest.update(directory.relativize(path).toString()
+                        .getBytes(StandardCharsets.UTF_8));
+                digest.update(Files.readAllBytes(path));
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static String hash(String text) {
+        return HexFormat.of().formatHex(
+                digest().digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException algo) {
+            throw new IllegalStateException(algo); // will surely never occur
+        }
+    }
+}
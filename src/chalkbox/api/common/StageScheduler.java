@@ -0,0 +1,246 @@
+package chalkbox.api.common;
+
+import chalkbox.api.collections.Collection;
+import chalkbox.api.collections.Data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+/**
+ * Runs independent processing stages on a submission concurrently.
+ *
+ * Each stage is given its own fork of the submission (see
+ * {@link Collection#fork()}), so stages may record results without
+ * interfering with one another. Once every stage has finished, the results
+ * of each stage are joined back into the submission in the order the stages
+ * were added, so the results are the same as if the stages had been run one
+ * after the other.
+ *
+ * If the scheduler has a {@link ResultCache}, stages added with the inputs
+ * they depend on reuse their cached results when those inputs have not
+ * changed, rather than running again.
+ */
+public class StageScheduler {
+
+    /**
+     * A processing stage that reads a submission and records results in it.
+     */
+    @FunctionalInterface
+    public interface Stage {
+        /**
+         * Runs the stage on the given submission.
+         *
+         * @param submission submission to process
+         * @return given submission with the stage's results added
+         * @throws IOException if the stage is unable to read the submission
+         */
+        Collection run(Collection submission) throws IOException;
+    }
+
+    /** Stages to run, in the order their results are merged */
+    private final Map<String, Stage> stages = new LinkedHashMap<>();
+
+    /** Submission files each cacheable stage depends on */
+    private final Map<String, Predicate<String>> inputs = new HashMap<>();
+
+    /** Cache of stage results, or null if results are not cached */
+    private final ResultCache cache;
+
+    /** Executor to run stages on, or null to run stages sequentially */
+    private final ExecutorService executor;
+
+    /** Whether to record how long each stage takes in the results */
+    private final boolean timing;
+
+    /**
+     * Creates a scheduler that runs at most the given number of stages at
+     * once.
+     *
+     * @param threads maximum number of stages to run concurrently; if 1 or
+     *                less, stages are run one after the other on the calling
+     *                thread
+     */
+    public StageScheduler(int threads) {
+        this(threads, false);
+    }
+
+    /**
+     * Creates a scheduler that runs at most the given number of stages at
+     * once, optionally recording the time taken by each stage in
+     * <code>extra_data.timing.stages.&lt;name&gt;</code> of the results, in
+     * milliseconds.
+     *
+     * @param threads maximum number of stages to run concurrently; if 1 or
+     *                less, stages are run one after the other on the calling
+     *                thread
+     * @param timing whether to record the time taken by each stage
+     */
+    public StageScheduler(int threads, boolean timing) {
+        this(threads, timing, null);
+    }
+
+    /**
+     * Creates a scheduler that runs at most the given number of stages at
+     * once, optionally recording the time taken by each stage, and reusing
+     * the cached results of stages whose inputs have not changed.
+     *
+     * @param threads maximum number of stages to run concurrently; if 1 or
+     *                less, stages are run one after the other on the calling
+     *                thread
+     * @param timing whether to record the time taken by each stage
+     * @param cache cache of stage results, or null to always run stages
+     */
+    public StageScheduler(int threads, boolean timing, ResultCache cache) {
+        this.timing = timing;
+        this.cache = cache;
+        if (threads <= 1) {
+            this.executor = null;
+        } else {
+            this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "chalkbox-stage");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Adds a stage to be run. Results of stages are merged into the
+     * submission in the order that the stages were added.
+     *
+     * @param name human readable name of the stage
+     * @param stage stage to run
+     */
+    public void add(String name, Stage stage) {
+        stages.put(name, stage);
+    }
+
+    /**
+     * Adds a stage to be run, whose results only depend on the given files
+     * of a submission (and the assignment configuration), so may be cached.
+     *
+     * @param name human readable name of the stage, unique among stages
+     * @param stage stage to run
+     * @param inputs matches the paths of the submission files the stage
+     *               depends on, see {@link ResultCache#key}
+     */
+    public void add(String name, Stage stage, Predicate<String> inputs) {
+        stages.put(name, stage);
+        this.inputs.put(name, inputs);
+    }
+
+    /**
+     * Determines whether a stage will run on the given submission, rather
+     * than reusing cached results.
+     *
+     * @param name name of the stage
+     * @param submission submission to be processed
+     * @return true iff the stage has been added and its results for the
+     * submission are not cached
+     * @throws IOException if the submission's files cannot be read
+     */
+    public boolean willRun(String name, Collection submission) throws IOException {
+        if (!stages.containsKey(name)) {
+            return false;
+        }
+        if (cache == null || !inputs.containsKey(name)) {
+            return true;
+        }
+        return !cache.contains(cache.key(name, submission.getSource(),
+                inputs.get(name)));
+    }
+
+    /**
+     * Runs every stage on the given submission.
+     *
+     * @param submission submission to process
+     * @return given submission with the results of every stage added
+     * @throws ExecutionException if any stage failed; the cause is the
+     * exception thrown by the first failed stage, in merge order
+     */
+    public Collection run(Collection submission) throws ExecutionException {
+        if (executor == null) {
+            for (Map.Entry<String, Stage> stage : stages.entrySet()) {
+                try {
+                    submission = time(stage.getKey(), stage.getValue(), submission);
+                } catch (IOException | RuntimeException e) {
+                    throw new ExecutionException("Stage " + stage.getKey()
+                            + " failed", e);
+                }
+            }
+            return submission;
+        }
+
+        /* Fork the submission for each stage before any stage starts */
+        List<Future<Collection>> results = new ArrayList<>();
+        for (Map.Entry<String, Stage> stage : stages.entrySet()) {
+            Collection fork = submission.fork();
+            results.add(executor.submit(() ->
+                    time(stage.getKey(), stage.getValue(), fork)));
+        }
+
+        /* Join the results in a fixed order, regardless of completion order */
+        for (Future<Collection> result : results) {
+            try {
+                submission.join(result.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ExecutionException("Interrupted while running stages", e);
+            }
+        }
+        return submission;
+    }
+
+    /**
+     * Shuts down the executor used to run stages concurrently. The scheduler
+     * should not be run once closed.
+     */
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /*
+     * Helper to run a stage, recording how long it took if timing is enabled.
+     */
+    private Collection time(String name, Stage stage, Collection submission)
+            throws IOException {
+        long start = System.nanoTime();
+        Collection result = runCached(name, stage, submission);
+        if (timing) {
+            result.getResults().set("extra_data.timing.stages." + name,
+                    (System.nanoTime() - start) / 1_000_000d);
+        }
+        return result;
+    }
+
+    /*
+     * Helper to run a stage, or reuse its cached results if its inputs have
+     * not changed.
+     */
+    private Collection runCached(String name, Stage stage, Collection submission)
+            throws IOException {
+        if (cache == null || !inputs.containsKey(name)) {
+            return stage.run(submission);
+        }
+
+        String key = cache.key(name, submission.getSource(), inputs.get(name));
+        if (cache.restore(key, submission.getResults())) {
+            return submission;
+        }
+        Data before = new Data(submission.getResults());
+        Collection result = stage.run(submission);
+        cache.store(key, before, result.getResults());
+        return result;
+    }
+}
@@ -0,0 +1,18 @@
+package chalkbox.api.common.java;
+
+/**
+ * Rewrites the byte code of classes as they are defined by a
+ * {@link MemoryClassLoader}, e.g. to instrument them.
+ */
+public interface ClassTransformer {
+
+    /**
+     * Transforms the byte code of a class about to be defined.
+     *
+     * @param className binary name of the class
+     * @param bytes original byte code of the class
+     * @return byte code to define the class with, or null to define the
+     * class with its original byte code
+     */
+    byte[] transform(String className, byte[] bytes);
+}
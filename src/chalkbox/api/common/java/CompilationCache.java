@@ -0,0 +1,198 @@
+package chalkbox.api.common.java;
+
+import chalkbox.api.collections.Bundle;
+import chalkbox.api.files.SourceFile;
+import chalkbox.api.files.TempFiles;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.logging.Logger;
+
+/**
+ * Persistent, content-addressed cache of compiled Java byte code.
+ *
+ * Entries are keyed by the hash of the paths and contents of the source
+ * files being compiled (see {@link Bundle#hash()}), the class path used to
+ * compile them and the version of the Java compiler. Compiling a bundle that
+ * has been compiled before with the same inputs returns the cached byte code
+ * without invoking the compiler.
+ *
+ * Each entry is a directory within the cache root, named by its key,
+ * containing a <code>classes/</code> directory of byte code and a
+ * <code>javac.log</code> file of the original compiler output. Entries are
+ * created by compiling into a temporary directory and atomically renaming it,
+ * so a partially written entry is never used, even if several processes share
+ * the same cache.
+ *
+ * Only successful compilations are cached.
+ */
+public class CompilationCache {
+
+    /** Logger */
+    private static final Logger LOGGER = Logger.getLogger(CompilationCache.class.getName());
+
+    /** Name of the directory containing byte code within an entry */
+    private static final String CLASSES = "classes";
+
+    /** Name of the file containing compiler output within an entry */
+    private static final String LOG = "javac.log";
+
+    /**
+     * Result of compiling a bundle through the cache.
+     */
+    public static class Entry {
+        private final String outputPath;
+        private final boolean compiles;
+
+        private Entry(String outputPath, boolean compiles) {
+            this.outputPath = outputPath;
+            this.compiles = compiles;
+        }
+
+        /**
+         * @return path of the directory containing the compiled byte code
+         */
+        public String getOutputPath() {
+            return outputPath;
+        }
+
+        /**
+         * @return true iff the source files compiled successfully
+         */
+        public boolean compiles() {
+            return compiles;
+        }
+    }
+
+    /** Root directory of the cache, or null if caching is disabled */
+    private final File root;
+
+    /**
+     * Creates a disabled cache, which compiles every bundle into a new
+     * temporary directory.
+     */
+    public CompilationCache() {
+        this(null);
+    }
+
+    /**
+     * Creates a cache stored in the given directory.
+     *
+     * If the directory does not exist it will attempt to be created.
+     *
+     * @param root path of the cache directory, or null to disable caching
+     */
+    public CompilationCache(String root) {
+        this.root = root == null ? null : new File(root).getAbsoluteFile();
+        if (this.root != null && !this.root.exists() && !this.root.mkdirs()) {
+            LOGGER.warning("Unable to create compilation cache " + root);
+        }
+    }
+
+    /**
+     * Compiles all the java source files in a bundle, reusing the cached byte
+     * code if the same sources have been compiled before with the same class
+     * path and compiler.
+     *
+     * @param source bundle containing the source files to compile
+     * @param classPath class path to compile with
+     * @param output writer for the output from compiling the source files
+     * @return the compiled byte code and whether compilation succeeded,
+     * where the byte code of a failed compilation is not kept if caching is
+     * enabled
+     * @throws IOException if an output directory cannot be created or the
+     * source files cannot be read
+     */
+    public Entry compile(Bundle source, String classPath, StringWriter output)
+            throws IOException {
+        if (root == null) {
+            return compileInto(source, classPath, new Bundle().getUnmaskedPath(),
+                    output);
+        }
+
+        String key = key(source, classPath);
+        Path entry = root.toPath().resolve(key);
+
+        /* Cache hit: replay the compiler output and reuse the byte code */
+        if (Files.isDirectory(entry)) {
+            LOGGER.finest("Compilation cache hit " + key);
+            output.write(Files.readString(entry.resolve(LOG), StandardCharsets.UTF_8));
+            return new Entry(entry.resolve(CLASSES).toString(), true);
+        }
+
+        /* Cache miss: compile into a temporary entry within the cache */
+        Path temp = TempFiles.createDirectory(root.toPath(), key + ".tmp");
+        try {
+            StringWriter compileOutput = new StringWriter();
+            Entry compiled = compileInto(source, classPath,
+                    temp.resolve(CLASSES).toString(), compileOutput);
+            output.write(compileOutput.toString());
+            if (!compiled.compiles()) {
+                return compiled;
+            }
+            Files.writeString(temp.resolve(LOG), compileOutput.toString(),
+                    StandardCharsets.UTF_8);
+
+            try {
+                Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException | AtomicMoveNotSupportedException e) {
+                /* Another process created the same entry first, use that one */
+            } catch (IOException e) {
+                if (!Files.isDirectory(entry)) {
+                    throw e;
+                }
+            }
+            return new Entry(entry.resolve(CLASSES).toString(), true);
+        } finally {
+            /* Nothing is left behind unless it was moved into place */
+            if (Files.exists(temp)) {
+                try {
+                    FileUtils.deleteDirectory(temp.toFile());
+                } catch (IOException e) {
+                    LOGGER.warning("Unable to delete " + temp + ": " + e);
+                }
+            }
+        }
+    }
+
+    /*
+     * Helper to compile the source files in a bundle into an output directory.
+     */
+    private static Entry compileInto(Bundle source, String classPath,
+                                     String outputPath, StringWriter output)
+            throws IOException {
+        SourceFile[] files = source.getFiles(".java");
+        boolean compiles = Compiler.compile(Arrays.asList(files), classPath,
+                outputPath, output);
+        return new Entry(outputPath, compiles);
+    }
+
+    /*
+     * Helper to compute the cache key for compiling a bundle.
+     */
+    private static String key(Bundle source, String classPath) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException algo) {
+            throw new IOException(algo); // will surely never occur
+        }
+
+        String inputs = source.hash() + "\n" + classPath + "\n"
+                + Runtime.version();
+        return HexFormat.of().formatHex(
+                digest.digest(inputs.getBytes(StandardCharsets.UTF_8)));
+    }
+}
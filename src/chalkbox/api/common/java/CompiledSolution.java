@@ -0,0 +1,96 @@
+package chalkbox.api.common.java;
+
+import chalkbox.api.collections.Bundle;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * Compiled byte code of a sample solution, shared by every stage that needs
+ * to compile or run code against the sample solution.
+ */
+public class CompiledSolution {
+
+    /** Path of the directory containing the sample solution source files */
+    private final String sourcePath;
+
+    /** Path of the directory containing the compiled byte code */
+    private final String outputPath;
+
+    /** Class path containing dependencies and the compiled byte code */
+    private final String classPath;
+
+    /** Whether the sample solution compiled successfully */
+    private final boolean compiles;
+
+    /** Output from compiling the sample solution */
+    private final String output;
+
+    private CompiledSolution(String sourcePath, String outputPath, String classPath,
+                             boolean compiles, String output) {
+        this.sourcePath = sourcePath;
+        this.outputPath = outputPath;
+        this.classPath = classPath;
+        this.compiles = compiles;
+        this.output = output;
+    }
+
+    /**
+     * Compiles the sample solution in the given directory.
+     *
+     * @param solutionPath path of the directory containing the sample solution
+     * @param classPath class path of dependencies to compile with
+     * @param cache cache to compile the sample solution through
+     * @return the compiled sample solution
+     * @throws IOException if the sample solution cannot be read or an output
+     * directory cannot be created
+     */
+    public static CompiledSolution compile(String solutionPath, String classPath,
+                                           CompilationCache cache)
+            throws IOException {
+        Bundle source = new Bundle(new File(solutionPath));
+        StringWriter output = new StringWriter();
+        CompilationCache.Entry compiled = cache.compile(source, classPath, output);
+
+        return new CompiledSolution(solutionPath, compiled.getOutputPath(),
+                classPath + System.getProperty("path.separator")
+                        + compiled.getOutputPath(),
+                compiled.compiles(), output.toString());
+    }
+
+    /**
+     * @return path of the directory containing the sample solution source files
+     */
+    public String getSourcePath() {
+        return sourcePath;
+    }
+
+    /**
+     * @return path of the directory containing the compiled byte code
+     */
+    public String getOutputPath() {
+        return outputPath;
+    }
+
+    /**
+     * @return class path containing dependencies and the compiled byte code
+     */
+    public String getClassPath() {
+        return classPath;
+    }
+
+    /**
+     * @return true iff the sample solution compiled successfully
+     */
+    public boolean compiles() {
+        return compiles;
+    }
+
+    /**
+     * @return output from compiling the sample solution
+     */
+    public String getOutput() {
+        return output;
+    }
+}
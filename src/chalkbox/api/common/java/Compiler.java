@@ -1,7 +1,9 @@
 package chalkbox.api.common.java;
 
 import chalkbox.api.collections.Bundle;
+import chalkbox.api.files.FileSourceFile;
 import chalkbox.api.files.SourceFile;
+import org.apache.commons.io.FileUtils;
 
 import javax.tools.JavaCompiler;
 import javax.tools.JavaFileObject;
@@ -9,15 +11,22 @@ import javax.tools.ToolProvider;
 import java.io.File;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Utility class for compiling Java source code.
  */
 public class Compiler {
 
+    /**
+     * System Java compiler, looked up once since loading it is expensive.
+     */
+    private static final JavaCompiler COMPILER = ToolProvider.getSystemJavaCompiler();
+
     /**
      * Compile java source files into java byte code files.
      *
@@ -62,11 +71,9 @@ public class Compiler {
      */
     public static boolean compile(Iterable<? extends JavaFileObject> files,
                                   StringWriter output, List<String> options) {
-        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-
         boolean success;
         try {
-            success = compiler.getTask(output, null,
+            success = COMPILER.getTask(output, null,
                     null, options, null, files).call();
         } catch (IllegalStateException e) {
             output.write("Empty submission");
@@ -76,6 +83,68 @@ public class Compiler {
         return success;
     }
 
+    /**
+     * Compile java source files into java byte code kept in memory.
+     *
+     * @param files The source java files to compile.
+     * @param classPath The classpath to compile with.
+     * @param output A string writer for the output from compiling the source files.
+     *
+     * @return The byte code of each compiled class keyed by binary class name,
+     * or null if the files were not compiled successfully.
+     */
+    public static Map<String, byte[]> compileInMemory(
+            Iterable<? extends JavaFileObject> files, String classPath,
+            StringWriter output) {
+        List<String> options = new ArrayList<>();
+        options.add("-cp");
+        options.add(classPath);
+
+        try (MemoryFileManager fileManager = new MemoryFileManager(
+                COMPILER.getStandardFileManager(null, null, null))) {
+            boolean success;
+            try {
+                success = COMPILER.getTask(output, fileManager,
+                        null, options, null, files).call();
+            } catch (IllegalStateException e) {
+                output.write("Empty submission");
+                return null;
+            }
+
+            return success ? fileManager.getClasses() : null;
+        } catch (IOException e) {
+            output.write("Unable to close compiler files - See tutor");
+            return null;
+        }
+    }
+
+    /**
+     * Compile a trivial class so that the compiler is loaded and warmed up
+     * before the first real compilation.
+     *
+     * @throws IOException if a temporary directory for the class cannot be
+     * created
+     */
+    public static void warmUp() throws IOException {
+        Bundle bundle = new Bundle();
+        try {
+            File source = new File(bundle.getUnmaskedPath("WarmUp.java"));
+            Files.writeString(source.toPath(),
+                    "public class WarmUp { public String toString() { return \"\"; } }");
+
+            List<SourceFile> files = new ArrayList<>();
+            files.add(new FileSourceFile("WarmUp.java", source));
+            compile(files, System.getProperty("java.class.path"),
+                    bundle.getUnmaskedPath(), new StringWriter());
+        } finally {
+            try {
+                FileUtils.deleteDirectory(new File(bundle.getUnmaskedPath()));
+            } catch (IOException e) {
+                System.err.println("Unable to delete " + bundle.getUnmaskedPath());
+            }
+        }
+    }
+
     /**
      * Get all of the java source files in a bundle as JavaFileObjects.
      *
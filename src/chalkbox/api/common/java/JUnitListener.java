@@ -1,55 +1,122 @@
 package chalkbox.api.common.java;
 
-import chalkbox.api.collections.Data;
 import org.junit.Test;
 import org.junit.runner.Description;
 import org.junit.runner.notification.Failure;
 import org.junit.runner.notification.RunListener;
+import org.junit.runner.notification.RunNotifier;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class JUnitListener extends RunListener {
-    private static class TestResult {
-        private final String testName;
-        private boolean visible = false;
-        private boolean passed = true;
-        private String output = "";
-        private int weighting = 1;
-
-        public TestResult(String testName) {
-            this.testName = testName;
-        }
-    }
-
     private List<TestResult> results;
     private TestResult currentResult;
     private int numFailed = 0;
     private StringBuilder output;
 
+    /* Notifier to stop, and the tests which stop the run if they fail */
+    private RunNotifier notifier;
+    private Set<String> mustPass;
+    private String stoppedAt;
+
+    /* When the test class started running, and how long it took to load and run */
+    private long classStartNanos;
+    private long classLoadNanos = 0;
+    private long classNanos = 0;
+
+    /* Whether to time tests, and when the current test started */
+    private boolean timed = false;
+    private long startNanos;
+    private long startCpuNanos;
+
+    /* Threads running the tests, and the CPU time each was last seen using */
+    private ThreadGroup testThreads;
+    private final Map<Long, Long> threadCpuNanos = new HashMap<>();
+
+    /* Whether the current test has exceeded its budget, and whether the run was abandoned */
+    private boolean exceeded = false;
+    private boolean abandoned = false;
+    private String notRunMessage;
+
+    /* Maximum number of characters of failure output kept for each test, or 0 for no limit */
+    private int outputLimit = 0;
+
     public JUnitListener() {
         this.results = new ArrayList<>();
         this.output = new StringBuilder();
     }
 
+    /**
+     * Creates a listener that asks the notifier to stop the run as soon as
+     * one of the given tests fails.
+     *
+     * @param notifier notifier running the tests
+     * @param mustPass names of tests (as ClassName.methodName) that stop the
+     *                 run if they fail
+     */
+    public JUnitListener(RunNotifier notifier, Set<String> mustPass) {
+        this();
+        this.notifier = notifier;
+        this.mustPass = mustPass;
+    }
+
+    /**
+     * Creates a listener that records the wall-clock and CPU time of each
+     * test, for enforcing a {@link TestBudget}.
+     *
+     * The CPU time of a test is the CPU time used by every thread in the
+     * given group and its subgroups while the test runs, so time spent on
+     * threads started by the test, such as the thread JUnit runs a test with
+     * a timeout on, is included.
+     *
+     * @param notifier notifier running the tests
+     * @param testThreads thread group the tests are run in
+     */
+    public JUnitListener(RunNotifier notifier, ThreadGroup testThreads) {
+        this(notifier, (Set<String>) null);
+        this.timed = true;
+        this.testThreads = testThreads;
+    }
+
     @Override
-    public void testStarted(Description description) throws Exception {
+    public synchronized void testStarted(Description description) throws Exception {
         super.testStarted(description);
+        if (this.abandoned) {
+            return;
+        }
 
-        this.currentResult = new TestResult(
+        this.currentResult = createResult(description);
+        this.startNanos = System.nanoTime();
+        this.currentResult.startedNanos = this.startNanos - this.classStartNanos;
+        if (this.timed) {
+            this.startCpuNanos = cpuTime();
+        }
+    }
+
+    /*
+     * Helper to create the result of a test, before it is run.
+     */
+    private static TestResult createResult(Description description) {
+        TestResult result = new TestResult(
                 description.getTestClass().getSimpleName()
                 + "." + description.getMethodName());
 
         /* Results of this test should be immediately visible */
         // TODO create a library containing a custom annotation for this
         if (description.getAnnotation(Deprecated.class) != null) {
-            this.currentResult.visible = true;
+            result.visible = true;
         }
 
         int testWeighting;
         var testAnnotation = description.getAnnotation(Test.class);
         if (testAnnotation == null) {
-            return;
+            return result;
         }
         /* If no timeout was specified, then give this test a weighting of 1 (standard) */
         if (testAnnotation.timeout() == 0) {
@@ -70,56 +137,248 @@ public class JUnitListener extends RunListener {
             testWeighting = Math.max(1, (int) (testAnnotation.timeout() % 10));
         }
 
-        this.currentResult.weighting = testWeighting;
+        result.weighting = testWeighting;
+        return result;
     }
 
     @Override
-    public void testFinished(Description description) throws Exception {
+    public synchronized void testFinished(Description description) throws Exception {
         super.testFinished(description);
+        if (this.abandoned) {
+            return;
+        }
 
         if (this.currentResult != null) {
+            recordTime();
             this.results.add(this.currentResult);
         }
         this.currentResult = null;
+        this.exceeded = false;
     }
 
     @Override
-    public void testFailure(Failure failure) throws Exception {
+    public synchronized void testFailure(Failure failure) throws Exception {
         super.testFailure(failure);
+        if (this.abandoned) {
+            return;
+        }
+        /* Already failed for exceeding its budget */
+        if (this.exceeded) {
+            return;
+        }
 
         if (this.currentResult != null) {
-            this.output.append(failure);
-            this.output.append("\n");
-            this.currentResult.output = failure.toString() + "\n\n"
-                    + failure.getTrace().replaceAll("\r\n", "\n");
+            if (this.outputLimit > 0) {
+                /* Capture the trace without ever building it in full */
+                String message = OutputCapture.capture(failure.toString(), this.outputLimit);
+                this.output.append(message);
+                this.output.append("\n");
+                this.currentResult.output = message + "\n\n" + OutputCapture.captureTrace(
+                        failure.getException(), Math.max(1, this.outputLimit - message.length()));
+            } else {
+                this.output.append(failure);
+                this.output.append("\n");
+                this.currentResult.output = failure.toString() + "\n\n"
+                        + failure.getTrace().replaceAll("\r\n", "\n");
+            }
             this.currentResult.passed = false;
+
+            if (this.mustPass != null && this.stoppedAt == null
+                    && this.mustPass.contains(this.currentResult.getName())) {
+                this.stoppedAt = this.currentResult.getName();
+                this.notifier.pleaseStop();
+            }
+        }
+        this.numFailed++;
+    }
+
+    /**
+     * Limits the failure output kept for each test, see {@link OutputCapture}.
+     *
+     * @param outputLimit maximum number of characters of failure output kept
+     *                    for each test, or 0 for no limit
+     */
+    public synchronized void setOutputLimit(int outputLimit) {
+        this.outputLimit = outputLimit;
+    }
+
+    /**
+     * Records that the test class has been loaded and is about to run.
+     *
+     * @param loadNanos nanoseconds taken to load the test class
+     */
+    public synchronized void classLoaded(long loadNanos) {
+        this.classLoadNanos = loadNanos;
+        this.classStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Records that the test class has finished running.
+     */
+    public synchronized void classFinished() {
+        this.classNanos = System.nanoTime() - this.classStartNanos;
+    }
+
+    /**
+     * Checks whether the current test has exceeded the per-test limits of a
+     * budget.
+     *
+     * @param budget budget to check against
+     * @return a message describing the exceeded limit, or null if the test
+     * is within budget or no test is running
+     */
+    public synchronized String checkBudget(TestBudget budget) {
+        if (!this.timed || this.currentResult == null || this.exceeded) {
+            return null;
+        }
+        long elapsedMillis = (System.nanoTime() - this.startNanos) / 1_000_000;
+        if (budget.getTestMillis() > 0 && elapsedMillis > budget.getTestMillis()) {
+            return "Test exceeded its time limit of " + budget.getTestMillis() + "ms";
+        }
+        long cpuNanos = cpuTime();
+        if (budget.getTestCpuMillis() > 0 && cpuNanos >= 0
+                && (cpuNanos - this.startCpuNanos) / 1_000_000 > budget.getTestCpuMillis()) {
+            return "Test exceeded its CPU time limit of " + budget.getTestCpuMillis() + "ms";
+        }
+        return null;
+    }
+
+    /**
+     * Fails the current test, if any, because it exceeded its budget. Later
+     * failures reported for the same test are ignored.
+     *
+     * @param message description of the exceeded limit
+     * @return the name of the failed test, or null if no test was running
+     */
+    public synchronized String exceedBudget(String message) {
+        if (this.abandoned || this.currentResult == null || this.exceeded) {
+            return null;
         }
+        this.exceeded = true;
+        this.currentResult.passed = false;
+        this.currentResult.output = message + "\n";
+        this.output.append(this.currentResult.getName()).append(": ")
+                .append(message).append("\n");
         this.numFailed++;
+        return this.currentResult.getName();
     }
 
-    public Data getResultsForClass() {
-        Data data = new Data();
-        data.set("extra_data.passes", this.results.size() - this.numFailed);
-        data.set("extra_data.fails", this.numFailed);
-        data.set("extra_data.total", this.results.size());
-        data.set("output", this.output.toString());
-        return data;
+    /**
+     * @param testName name of a test
+     * @return true iff the given test is still running
+     */
+    public synchronized boolean isRunning(String testName) {
+        return this.currentResult != null
+                && this.currentResult.getName().equals(testName);
     }
 
-    public List<Data> getIndividualResults() {
-        List<Data> results = new ArrayList<>();
+    /**
+     * Stops recording results, because the thread running the tests has
+     * been abandoned. Tests in the run which have not finished are recorded
+     * as failed with the given message.
+     *
+     * @param run description of the whole run
+     * @param message output of the tests that did not finish
+     */
+    public synchronized void abandon(Description run, String message) {
+        if (this.currentResult != null) {
+            recordTime();
+            this.results.add(this.currentResult);
+            this.currentResult = null;
+        }
+        this.abandoned = true;
+        this.notRunMessage = message;
+        addNotRun(run);
+    }
 
+    /*
+     * Helper to record tests in the run that have no result as failed.
+     */
+    private void addNotRun(Description description) {
+        if (description.isTest()) {
+            TestResult result = createResult(description);
+            for (TestResult existing : this.results) {
+                if (existing.getName().equals(result.getName())) {
+                    return;
+                }
+            }
+            result.passed = false;
+            result.output = this.notRunMessage + "\n";
+            this.results.add(result);
+            this.numFailed++;
+            return;
+        }
+        for (Description child : description.getChildren()) {
+            addNotRun(child);
+        }
+    }
+
+    /*
+     * Helper to record the time taken by the current test.
+     */
+    private void recordTime() {
+        this.currentResult.elapsedNanos = System.nanoTime() - this.startNanos;
+        if (!this.timed) {
+            return;
+        }
+        long cpuNanos = cpuTime();
+        if (cpuNanos >= 0) {
+            this.currentResult.cpuNanos = cpuNanos - this.startCpuNanos;
+        }
+    }
+
+    /*
+     * Helper to get the total CPU time used by the threads running the
+     * tests, or -1 if unsupported. Threads that have finished are counted
+     * with the CPU time they were last seen using, so the total never goes
+     * down as threads finish.
+     */
+    private long cpuTime() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!bean.isThreadCpuTimeSupported()) {
+            return -1;
+        }
+        /* Leave room for threads started while enumerating */
+        Thread[] threads = new Thread[this.testThreads.activeCount() + 8];
+        int count = this.testThreads.enumerate(threads, true);
+        for (int i = 0; i < count; i++) {
+            long nanos = bean.getThreadCpuTime(threads[i].threadId());
+            if (nanos >= 0) {
+                this.threadCpuNanos.put(threads[i].threadId(), nanos);
+            }
+        }
+        long total = 0;
+        for (long nanos : this.threadCpuNanos.values()) {
+            total += nanos;
+        }
+        return total;
+    }
+
+    /**
+     * @return result of the test class, including the result of each test
+     * run in the order they finished
+     */
+    public synchronized TestClassResult getResultsForClass() {
+        long testNanos = 0;
+        for (TestResult result : this.results) {
+            testNanos += result.elapsedNanos;
+        }
+        return new TestClassResult(this.results.size() - this.numFailed,
+                this.numFailed, this.results.size(), this.output.toString(),
+                getIndividualResults(), this.stoppedAt,
+                TestResult.millis(this.classLoadNanos),
+                TestResult.millis(this.classNanos), TestResult.millis(testNanos));
+    }
+
+    /**
+     * @return result of each test run, in the order they finished
+     */
+    public synchronized List<TestResult> getIndividualResults() {
         for (TestResult result : this.results) {
-            Data data = new Data();
-            data.set("extra_data.passes", result.passed ? 1 : 0);
-            data.set("extra_data.fails", result.passed ? 0 : 1);
-            data.set("extra_data.total", 1);
-            data.set("output", result.output);
-            data.set("name", result.testName);
-            data.set("weighting", result.weighting);
-            data.set("visibility", result.visible ? "visible" : "after_published");
-            results.add(data);
-        }
-        return results;
+            result.timed = this.timed;
+            result.classLoadNanos = this.classLoadNanos;
+            result.classNanos = this.classNanos;
+        }
+        return new ArrayList<>(this.results);
     }
 }
@@ -1,50 +1,237 @@
 package chalkbox.api.common.java;
 
-import chalkbox.api.collections.Data;
 import org.junit.runner.JUnitCore;
+import org.junit.runner.Request;
+import org.junit.runner.Runner;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runner.notification.StoppedByUserException;
 
-import java.io.File;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.io.IOException;
 import java.net.URLClassLoader;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Utility class to execute a JUnit test.
  */
 public class JUnitRunner {
 
-    // Runs all tests in the given class and returns a single output object
-    public static Data runTestsCombined(String className, String classPath) {
-        return run(className, classPath).getResultsForClass();
+    /** Milliseconds between checks of a test's running time */
+    private static final long POLL_MILLIS = 10;
+
+    /** Milliseconds to wait for an interrupted test to stop before abandoning it */
+    private static final long GRACE_MILLIS = 1000;
+
+    // Runs all tests in the given class, loading classes from the class path
+    // then the in-memory classes and passing the classes loaded from the
+    // class path through the transformer (if not null), and returns a single
+    // result, keeping at most outputLimit characters of failure output for
+    // each test (if not 0)
+    public static TestClassResult runTestsCombined(String className, String classPath,
+                                        Map<String, byte[]> classes,
+                                        ClassTransformer transformer,
+                                        int outputLimit) {
+        return run(className, classPath, classes, null, transformer, outputLimit)
+                .getResultsForClass();
+    }
+
+    // As above, also listing the classes loaded from the class path (rather
+    // than from memory or dependency jars) in the result
+    public static TestClassResult runTestsRecordingLoads(String className, String classPath,
+                                              Map<String, byte[]> classes,
+                                              ClassTransformer transformer,
+                                              int outputLimit) {
+        Set<String> loaded = ConcurrentHashMap.newKeySet();
+        TestClassResult results = run(className, classPath, classes, loaded,
+                transformer, outputLimit).getResultsForClass();
+        results.setLoadedClasses(loaded);
+        return results;
+    }
+
+    // Runs the tests in the given class until one of the named tests fails,
+    // and returns a single result, keeping at most outputLimit characters of
+    // failure output for each test (if not 0)
+    public static TestClassResult runTestsUntilFailure(String className, String classPath,
+                                            Map<String, byte[]> classes,
+                                            Set<String> mustPass,
+                                            int outputLimit) {
+        RunNotifier notifier = new RunNotifier();
+        JUnitListener listener = new JUnitListener(notifier, mustPass);
+        listener.setOutputLimit(outputLimit);
+        notifier.addListener(listener);
+
+        try (URLClassLoader classLoader = TestClassLoaders.open(classPath, classes)) {
+            long loadStart = System.nanoTime();
+            Runner runner = Request.aClass(classLoader.loadClass(className))
+                    .getRunner();
+            listener.classLoaded(System.nanoTime() - loadStart);
+            runner.run(notifier);
+        } catch (StoppedByUserException e) {
+            /* Stopped by the listener once a named test failed */
+        } catch (ClassNotFoundException | IOException e) {
+            e.printStackTrace();
+        }
+        listener.classFinished();
+        return listener.getResultsForClass();
+    }
+
+    /**
+     * Runs all tests in the given class within a time budget, and returns a
+     * result for each @Test.
+     *
+     * The tests run on a separate thread, watched by the calling thread. A
+     * test that runs past its wall-clock or CPU time limit, or is running
+     * when the class runs past its limit, is failed and its thread is
+     * interrupted. If the test does not stop within a short grace period the
+     * thread is abandoned, and any tests that did not get to run are failed.
+     * When the class limit is reached, no further tests are started.
+     *
+     * If the budget has any limits, each result also records the
+     * wall-clock and CPU time of the test as extra_data.elapsed_ms and
+     * extra_data.cpu_ms. CPU time includes any threads the test starts,
+     * such as the thread JUnit runs a test with a timeout on.
+     *
+     * A bounded amount of failure output is kept for each test, see
+     * {@link OutputCapture}.
+     *
+     * @param className name of the test class to run
+     * @param classPath class path to load classes from
+     * @param classes in-memory classes, loaded after the class path
+     * @param budget time limits for the tests
+     * @param outputLimit maximum number of characters of failure output kept
+     *                    for each test, or 0 for no limit
+     * @return a result for each @Test
+     */
+    public static List<TestResult> runTests(String className, String classPath,
+                                      Map<String, byte[]> classes,
+                                      TestBudget budget, int outputLimit) {
+        if (!budget.isLimited()) {
+            return run(className, classPath, classes, null, null, outputLimit)
+                    .getIndividualResults();
+        }
+
+        RunNotifier notifier = new RunNotifier();
+        ThreadGroup testThreads = new ThreadGroup("chalkbox-tests-" + className);
+        JUnitListener listener = new JUnitListener(notifier, testThreads);
+        listener.setOutputLimit(outputLimit);
+        notifier.addListener(listener);
+
+        try (URLClassLoader classLoader = TestClassLoaders.open(classPath, classes)) {
+            runWithBudget(className, classLoader, testThreads, listener, notifier, budget);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return listener.getIndividualResults();
+    }
+
+    /*
+     * Helper to run a test class on a watched thread in the given group,
+     * enforcing the limits of the budget.
+     */
+    private static void runWithBudget(String className, ClassLoader classLoader,
+                                      ThreadGroup testThreads, JUnitListener listener,
+                                      RunNotifier notifier, TestBudget budget) {
+        Runner runner;
+        try {
+            long loadStart = System.nanoTime();
+            runner = Request.aClass(classLoader.loadClass(className)).getRunner();
+            listener.classLoaded(System.nanoTime() - loadStart);
+        } catch (ClassNotFoundException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        Thread thread = new Thread(testThreads, () -> {
+            try {
+                runner.run(notifier);
+            } catch (StoppedByUserException e) {
+                /* Stopped once the class ran out of time */
+            }
+        }, "chalkbox-test-" + className);
+        thread.setDaemon(true);
+        thread.start();
+
+        try {
+            watch(thread, runner, listener, notifier, budget);
+        } catch (InterruptedException e) {
+            thread.interrupt();
+            Thread.currentThread().interrupt();
+            listener.abandon(runner.getDescription(), "Not run, grading was interrupted");
+        }
+        listener.classFinished();
     }
 
-    // Runs all tests in the given class and returns an output object for each @Test
-    public static List<Data> runTests(String className, String classPath) {
-        return run(className, classPath).getIndividualResults();
+    /*
+     * Helper to watch a thread running tests until it finishes, enforcing
+     * the limits of the budget.
+     */
+    private static void watch(Thread thread, Runner runner, JUnitListener listener,
+                              RunNotifier notifier, TestBudget budget)
+            throws InterruptedException {
+        long classStart = System.nanoTime();
+        boolean stopped = false;
+        while (true) {
+            thread.join(POLL_MILLIS);
+            if (!thread.isAlive()) {
+                if (stopped) {
+                    listener.abandon(runner.getDescription(), "Not run, as the "
+                            + "test class exceeded its time limit");
+                }
+                return;
+            }
+
+            String message = listener.checkBudget(budget);
+            if (message == null && !stopped && budget.getClassMillis() > 0
+                    && (System.nanoTime() - classStart) / 1_000_000
+                        > budget.getClassMillis()) {
+                message = "Test class exceeded its time limit of "
+                        + budget.getClassMillis() + "ms";
+                stopped = true;
+                notifier.pleaseStop();
+            }
+            if (message == null) {
+                continue;
+            }
+
+            String test = listener.exceedBudget(message);
+            thread.interrupt();
+            thread.join(GRACE_MILLIS);
+            if (thread.isAlive() && (stopped || listener.isRunning(test))) {
+                /* Thread ignored the interrupt, leave it running and move on */
+                listener.abandon(runner.getDescription(), "Not run, as an earlier test "
+                        + "did not stop after exceeding its time limit");
+                return;
+            }
+        }
     }
 
-    private static JUnitListener run(String className, String classPath) {
+    private static JUnitListener run(String className, String classPath,
+                                     Map<String, byte[]> classes,
+                                     Set<String> loaded,
+                                     ClassTransformer transformer,
+                                     int outputLimit) {
         JUnitListener listener = new JUnitListener();
+        listener.setOutputLimit(outputLimit);
         JUnitCore runner = new JUnitCore();
         runner.addListener(listener);
 
-        String[] classPathEntries = classPath.split(
-                System.getProperty("path.separator"));
-        URL[] classPathUrls = new URL[classPathEntries.length];
-        for (int i = 0; i < classPathEntries.length; ++i) {
-            try {
-                classPathUrls[i] = new File(classPathEntries[i]).toURI().toURL();
-            } catch (MalformedURLException e) {
-                e.printStackTrace();
+        try (MemoryClassLoader classLoader = TestClassLoaders.open(classPath, classes)) {
+            if (loaded != null) {
+                classLoader.recordClassPathLoads(loaded);
             }
-        }
-        URLClassLoader classLoader = new URLClassLoader(classPathUrls);
-        try {
-            runner.run(classLoader.loadClass(className));
-        } catch (ClassNotFoundException e) {
+            if (transformer != null) {
+                classLoader.transformClassPathClasses(transformer);
+            }
+            long loadStart = System.nanoTime();
+            Class<?> testClass = classLoader.loadClass(className);
+            listener.classLoaded(System.nanoTime() - loadStart);
+            runner.run(testClass);
+        } catch (ClassNotFoundException | IOException e) {
             e.printStackTrace();
         }
+        listener.classFinished();
         return listener;
     }
 
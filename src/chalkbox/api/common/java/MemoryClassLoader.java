@@ -0,0 +1,129 @@
+package chalkbox.api.common.java;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Class loader that defines classes directly from in-memory byte code, such
+ * as the byte code produced by a {@link MemoryFileManager}.
+ *
+ * Classes are searched for on the given class path first, then in memory,
+ * as if the in-memory classes were the last entry on the class path.
+ */
+public class MemoryClassLoader extends URLClassLoader {
+
+    /** Byte code of each in-memory class, keyed by binary class name */
+    private final Map<String, byte[]> classes;
+
+    /** Names of classes loaded from the class path, or null if not recorded */
+    private Set<String> classPathLoads;
+
+    /** Transformer for classes loaded from the class path, or null */
+    private ClassTransformer transformer;
+
+    /**
+     * Creates a class loader for the given class path and in-memory classes.
+     *
+     * @param urls class path to search before the in-memory classes
+     * @param classes mapping of binary class names to byte code
+     * @param parent parent class loader to delegate to
+     */
+    public MemoryClassLoader(URL[] urls, Map<String, byte[]> classes,
+                             ClassLoader parent) {
+        super(urls, parent);
+        this.classes = classes;
+    }
+
+    /**
+     * Records the binary name of every class this loader loads from its
+     * class path (not from memory or a parent loader) in the given set.
+     *
+     * @param names set to add class names to, must be safe to use from the
+     *              threads that load classes
+     */
+    public void recordClassPathLoads(Set<String> names) {
+        this.classPathLoads = names;
+    }
+
+    /**
+     * Passes the byte code of every class this loader loads from its class
+     * path (not from memory or a parent loader) through the given
+     * transformer before the class is defined.
+     *
+     * @param transformer transformer to apply, must be safe to use from the
+     *                    threads that load classes
+     */
+    public void transformClassPathClasses(ClassTransformer transformer) {
+        this.transformer = transformer;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        try {
+            Class<?> loaded = transformer == null
+                    ? super.findClass(name)
+                    : findTransformedClass(name);
+            if (classPathLoads != null) {
+                classPathLoads.add(name);
+            }
+            return loaded;
+        } catch (ClassNotFoundException e) {
+            byte[] bytes = classes.get(name);
+            if (bytes == null) {
+                throw e;
+            }
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    /*
+     * Helper to define a class from the class path, after passing its byte
+     * code through the transformer.
+     */
+    private Class<?> findTransformedClass(String name) throws ClassNotFoundException {
+        URL resource = findResource(name.replace('.', '/') + ".class");
+        if (resource == null) {
+            throw new ClassNotFoundException(name);
+        }
+        byte[] bytes;
+        try (InputStream in = resource.openStream()) {
+            bytes = in.readAllBytes();
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+        byte[] transformed = transformer.transform(name, bytes);
+        if (transformed != null) {
+            bytes = transformed;
+        }
+        return defineClass(name, bytes, 0, bytes.length);
+    }
+
+    /**
+     * Converts a class path string into the URLs of each class path entry.
+     *
+     * @param classPath entries separated by the path separator
+     * @return URL of each entry
+     */
+    public static URL[] toURLs(String classPath) {
+        if (classPath == null || classPath.isEmpty()) {
+            return new URL[0];
+        }
+        String[] classPathEntries = classPath.split(
+                System.getProperty("path.separator"));
+        URL[] classPathUrls = new URL[classPathEntries.length];
+        for (int i = 0; i < classPathEntries.length; ++i) {
+            try {
+                classPathUrls[i] = new File(classPathEntries[i]).toURI().toURL();
+            } catch (MalformedURLException e) {
+                e.printStackTrace();
+            }
+        }
+        return classPathUrls;
+    }
+}
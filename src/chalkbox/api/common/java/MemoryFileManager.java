@@ -0,0 +1,86 @@
+package chalkbox.api.common.java;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Java file manager that keeps compiled byte code in memory rather than
+ * writing class files to an output directory.
+ *
+ * Source files and the class path are still read through the standard file
+ * manager. Only class files written to the class output location are kept
+ * in memory, keyed by binary class name (e.g. <code>pkg.Outer$Inner</code>).
+ */
+public class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+    /** Byte code of each compiled class, keyed by binary class name */
+    private final Map<String, byte[]> classes =
+            Collections.synchronizedMap(new TreeMap<>());
+
+    /**
+     * Creates a file manager that forwards everything except class output to
+     * the given standard file manager.
+     *
+     * @param fileManager standard file manager to forward to
+     */
+    public MemoryFileManager(StandardJavaFileManager fileManager) {
+        super(fileManager);
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(Location location, String className,
+                                               JavaFileObject.Kind kind,
+                                               FileObject sibling) throws IOException {
+        if (location != StandardLocation.CLASS_OUTPUT
+                || kind != JavaFileObject.Kind.CLASS) {
+            return super.getJavaFileForOutput(location, className, kind, sibling);
+        }
+        return new ClassFile(className);
+    }
+
+    /**
+     * Returns the byte code of every class compiled through this file manager.
+     *
+     * @return mapping of binary class names to byte code
+     */
+    public Map<String, byte[]> getClasses() {
+        synchronized (classes) {
+            return new TreeMap<>(classes);
+        }
+    }
+
+    /**
+     * A class file whose contents are stored in memory once written.
+     */
+    private class ClassFile extends SimpleJavaFileObject {
+        private final String className;
+
+        private ClassFile(String className) {
+            super(URI.create("memory:///" + className.replace('.', '/')
+                    + Kind.CLASS.extension), Kind.CLASS);
+            this.className = className;
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return new ByteArrayOutputStream() {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    classes.put(className, toByteArray());
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package chalkbox.api.common.java;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Writer that keeps a bounded amount of text, for capturing failure
+ * messages and stack traces of tests.
+ *
+ * Text is kept line by line. Consecutive identical lines, such as the frames
+ * of a deeply recursive call, are collapsed into the first line and a count
+ * of its repeats. Lines are kept from the start of the text until half of
+ * the limit is used, then only the most recent lines fitting in the other
+ * half are kept, so both where a failure was raised and the outermost
+ * frames survive. A single line is cut short at half of the limit.
+ *
+ * Carriage returns ending a line are dropped, so traces have the same line
+ * endings on every platform.
+ */
+public class OutputCapture extends Writer {
+
+    /** Maximum number of characters of lines kept from the start */
+    private final int headLimit;
+
+    /** Maximum number of characters of lines kept from the end */
+    private final int tailLimit;
+
+    /* Lines kept from the start, and whether any more fit */
+    private final StringBuilder head = new StringBuilder();
+    private boolean headFull = false;
+
+    /* Most recent lines kept from the end, and their total length */
+    private final Deque<String> tail = new ArrayDeque<>();
+    private int tailLength = 0;
+
+    /** Number of lines dropped between the start and the end */
+    private long omitted = 0;
+
+    /* Line being written, and the number of characters cut from it */
+    private final StringBuilder line = new StringBuilder();
+    private long cut = 0;
+
+    /* Last line kept, and the number of times it has since been repeated */
+    private String previous;
+    private long repeats = 0;
+
+    /**
+     * Creates a writer that keeps at most roughly the given number of
+     * characters, plus short notes of what was left out.
+     *
+     * @param limit maximum number of characters to keep, must be positive
+     */
+    public OutputCapture(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Output limit must be positive");
+        }
+        this.headLimit = Math.max(1, limit / 2);
+        this.tailLimit = Math.max(1, limit - headLimit);
+    }
+
+    /**
+     * Captures the stack trace of a throwable, as printed by
+     * {@link Throwable#printStackTrace(PrintWriter)}, within a limit.
+     *
+     * @param throwable throwable to capture the trace of
+     * @param limit maximum number of characters to keep
+     * @return the captured trace
+     */
+    public static String captureTrace(Throwable throwable, int limit) {
+        OutputCapture capture = new OutputCapture(limit);
+        PrintWriter writer = new PrintWriter(capture);
+        throwable.printStackTrace(writer);
+        writer.flush();
+        return capture.toString();
+    }
+
+    /**
+     * Captures a string within a limit.
+     *
+     * @param text string to capture
+     * @param limit maximum number of characters to keep
+     * @return the captured string
+     */
+    public static String capture(String text, int limit) {
+        OutputCapture capture = new OutputCapture(limit);
+        capture.write(text);
+        return capture.toString();
+    }
+
+    @Override
+    public synchronized void write(char[] buffer, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            char c = buffer[i];
+            if (c == '\n') {
+                endLine(true);
+            } else if (line.length() < headLimit) {
+                line.append(c);
+            } else {
+                cut++;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void write(String text) {
+        write(text.toCharArray(), 0, text.length());
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * @return the text kept so far, with notes of any repeated lines and
+     * lines left out
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder result = new StringBuilder(head);
+        if (omitted > 0) {
+            result.append("\t... (").append(omitted).append(" lines omitted)\n");
+        }
+        for (String kept : tail) {
+            result.append(kept);
+        }
+        if (repeats > 0) {
+            result.append(repeatNote());
+        }
+        if (line.length() > 0 || cut > 0) {
+            result.append(cutLine());
+        }
+        return result.toString();
+    }
+
+    /*
+     * Helper to finish the line being written, collapsing it into the
+     * previous line if they are the same.
+     */
+    private void endLine(boolean newline) {
+        String text = cutLine();
+        if (text.endsWith("\r")) {
+            text = text.substring(0, text.length() - 1);
+        }
+        line.setLength(0);
+        cut = 0;
+
+        if (text.equals(previous)) {
+            repeats++;
+            return;
+        }
+        if (repeats > 0) {
+            keep(repeatNote());
+            repeats = 0;
+        }
+        previous = text;
+        keep(newline ? text + "\n" : text);
+    }
+
+    /*
+     * Helper to keep a line at the start if there is room, otherwise at the
+     * end, dropping the oldest lines at the end which no longer fit.
+     */
+    private void keep(String text) {
+        if (!headFull && (head.length() == 0
+                || head.length() + text.length() <= headLimit)) {
+            head.append(text);
+            return;
+        }
+        headFull = true;
+        tail.addLast(text);
+        tailLength += text.length();
+        while (tailLength > tailLimit && tail.size() > 1) {
+            tailLength -= tail.removeFirst().length();
+            omitted++;
+        }
+    }
+
+    private String repeatNote() {
+        return "\t... (previous line repeated " + repeats + " more times)\n";
+    }
+
+    private String cutLine() {
+        if (cut == 0) {
+            return line.toString();
+        }
+        return line + "... (" + cut + " characters omitted)";
+    }
+}
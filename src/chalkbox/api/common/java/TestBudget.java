@@ -0,0 +1,62 @@
+package chalkbox.api.common.java;
+
+/**
+ * Time limits for running the tests in a JUnit test class.
+ *
+ * A limit of zero means that limit is not enforced. See
+ * {@link JUnitRunner#runTests(String, String, java.util.Map, TestBudget, int)}
+ * for how the limits are enforced.
+ */
+public class TestBudget {
+
+    /** Milliseconds of wall-clock time a single test may run for */
+    private final long testMillis;
+
+    /** Milliseconds of CPU time a single test may use */
+    private final long testCpuMillis;
+
+    /** Milliseconds of wall-clock time all tests in a class may run for */
+    private final long classMillis;
+
+    /**
+     * Creates a budget with the given limits, where zero means no limit.
+     *
+     * @param testMillis wall-clock milliseconds a single test may run for
+     * @param testCpuMillis CPU milliseconds a single test may use
+     * @param classMillis wall-clock milliseconds all tests in a class may
+     *                    run for
+     */
+    public TestBudget(long testMillis, long testCpuMillis, long classMillis) {
+        this.testMillis = testMillis;
+        this.testCpuMillis = testCpuMillis;
+        this.classMillis = classMillis;
+    }
+
+    /**
+     * @return wall-clock milliseconds a single test may run for, or 0
+     */
+    public long getTestMillis() {
+        return testMillis;
+    }
+
+    /**
+     * @return CPU milliseconds a single test may use, or 0
+     */
+    public long getTestCpuMillis() {
+        return testCpuMillis;
+    }
+
+    /**
+     * @return wall-clock milliseconds all tests in a class may run for, or 0
+     */
+    public long getClassMillis() {
+        return classMillis;
+    }
+
+    /**
+     * @return true iff at least one limit is enforced
+     */
+    public boolean isLimited() {
+        return testMillis > 0 || testCpuMillis > 0 || classMillis > 0;
+    }
+}
@@ -0,0 +1,123 @@
+package chalkbox.api.common.java;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Creates the class loaders that test classes are run in.
+ *
+ * Loaders are layered so that classes which never change between runs are
+ * only loaded, verified and compiled by the JIT once. Jar files on a class
+ * path are dependencies such as JUnit and Hamcrest, and are loaded by a
+ * long-lived loader shared by every run with the same jars. Directories on
+ * the class path (compiled tests, sample and faulty solutions) and the
+ * in-memory byte code of a submission change from run to run, and are loaded
+ * by a thin child loader created for each run.
+ *
+ * Child loaders must be closed once their run has finished, e.g. with
+ * try-with-resources. A run that may be abandoned part way through, leaving
+ * its thread running, can be tracked with {@link #track} so its loaders are
+ * closed by whoever abandons it. Shared loaders live for as long as the
+ * grader.
+ */
+public class TestClassLoaders {
+
+    /** Shared loaders for dependency jars, keyed by the jars they load */
+    private static final Map<List<URL>, ClassLoader> SHARED = new ConcurrentHashMap<>();
+
+    /** Child loaders opened by the current thread, if it is tracking them */
+    private static final ThreadLocal<Collection<MemoryClassLoader>> TRACKED =
+            new ThreadLocal<>();
+
+    private TestClassLoaders() {
+    }
+
+    /**
+     * Creates a loader for a single run of a test class.
+     *
+     * Classes are searched for in the system class loader, then the jars on
+     * the class path, then the other entries on the class path, and finally
+     * the in-memory classes.
+     *
+     * @param classPath class path to load classes from
+     * @param classes in-memory classes, loaded after the class path
+     * @return a new child loader, which the caller must close
+     */
+    public static MemoryClassLoader open(String classPath, Map<String, byte[]> classes) {
+        List<URL> jars = new ArrayList<>();
+        List<URL> others = new ArrayList<>();
+        for (URL url : MemoryClassLoader.toURLs(classPath)) {
+            if (url == null) {
+                continue;
+            }
+            if (url.getPath().endsWith(".jar")) {
+                jars.add(url);
+            } else {
+                others.add(url);
+            }
+        }
+        MemoryClassLoader loader = new MemoryClassLoader(others.toArray(new URL[0]),
+                classes, shared(jars));
+        Collection<MemoryClassLoader> tracked = TRACKED.get();
+        if (tracked != null) {
+            tracked.add(loader);
+        }
+        return loader;
+    }
+
+    /**
+     * Runs a task on the calling thread, adding every child loader it opens
+     * to the given collection. If the task is abandoned before it closes
+     * them, they can then be closed with {@link #close(Collection)}.
+     *
+     * @param opened thread-safe collection to add the opened loaders to
+     * @param task task to run
+     * @param <T> type of the task's result
+     * @return result of the task
+     * @throws Exception if the task throws an exception
+     */
+    public static <T> T track(Collection<MemoryClassLoader> opened, Callable<T> task)
+            throws Exception {
+        TRACKED.set(opened);
+        try {
+            return task.call();
+        } finally {
+            TRACKED.remove();
+        }
+    }
+
+    /**
+     * Closes child loaders, such as those of an abandoned run. Classes they
+     * have already loaded keep working, but their files are released.
+     *
+     * @param loaders loaders to close, which may already be closed
+     */
+    public static void close(Collection<MemoryClassLoader> loaders) {
+        for (MemoryClassLoader loader : loaders) {
+            try {
+                loader.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /*
+     * Helper to get the shared loader for a list of jars, creating it if
+     * this is the first run to use them.
+     */
+    private static ClassLoader shared(List<URL> jars) {
+        if (jars.isEmpty()) {
+            return ClassLoader.getSystemClassLoader();
+        }
+        return SHARED.computeIfAbsent(List.copyOf(jars), urls -> new URLClassLoader(
+                urls.toArray(new URL[0]), ClassLoader.getSystemClassLoader()));
+    }
+}
@@ -0,0 +1,136 @@
+package chalkbox.api.common.java;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Result of running the tests in a JUnit test class.
+ *
+ * Unlike the results JSON, values are held in typed fields, so they can be
+ * read cheaply while comparing results across many runs.
+ */
+public class TestClassResult {
+
+    private final int passes;
+    private final int fails;
+    private final int total;
+    private final String output;
+    private final List<TestResult> tests;
+    private final String stoppedAt;
+    private final double classLoadMillis;
+    private final double classMillis;
+    private final double testsMillis;
+    private List<String> loadedClasses;
+
+    /**
+     * Creates the result of a test class run.
+     *
+     * @param passes number of tests passed
+     * @param fails number of failures, including failures outside of a test
+     * @param total number of tests run
+     * @param output failure messages of the tests that failed
+     * @param tests result of each test run, in the order they finished
+     * @param stoppedAt name of the test that stopped the run early, or null
+     * @param classLoadMillis milliseconds taken to load the test class
+     * @param classMillis milliseconds taken to run the test class
+     * @param testsMillis milliseconds taken by the tests themselves
+     */
+    public TestClassResult(int passes, int fails, int total, String output,
+                           List<TestResult> tests, String stoppedAt,
+                           double classLoadMillis, double classMillis,
+                           double testsMillis) {
+        this.passes = passes;
+        this.fails = fails;
+        this.total = total;
+        this.output = output;
+        this.tests = List.copyOf(tests);
+        this.stoppedAt = stoppedAt;
+        this.classLoadMillis = classLoadMillis;
+        this.classMillis = classMillis;
+        this.testsMillis = testsMillis;
+    }
+
+    /**
+     * Creates the result of a test class that could not be run, which is
+     * recorded as a single failed test.
+     *
+     * @param output reason the test class could not be run
+     * @return result with one failure
+     */
+    public static TestClassResult failed(String output) {
+        return new TestClassResult(0, 1, 1, output, List.of(), null, 0, 0, 0);
+    }
+
+    public int getPasses() {
+        return passes;
+    }
+
+    public int getFails() {
+        return fails;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+
+    /**
+     * @return result of each test run, in the order they finished
+     */
+    public List<TestResult> getTests() {
+        return tests;
+    }
+
+    /**
+     * @return names of the tests that passed, as ClassName.methodName
+     */
+    public Set<String> getPassedTests() {
+        Set<String> passed = new HashSet<>();
+        for (TestResult test : tests) {
+            if (test.isPassed()) {
+                passed.add(test.getName());
+            }
+        }
+        return passed;
+    }
+
+    /**
+     * @return name of the test that stopped the run early, or null if every
+     * test ran
+     */
+    public String getStoppedAt() {
+        return stoppedAt;
+    }
+
+    public double getClassLoadMillis() {
+        return classLoadMillis;
+    }
+
+    public double getClassMillis() {
+        return classMillis;
+    }
+
+    public double getTestsMillis() {
+        return testsMillis;
+    }
+
+    /**
+     * @return binary names of the classes loaded from the class path, in
+     * sorted order, or null if they were not recorded
+     */
+    public List<String> getLoadedClasses() {
+        return loadedClasses;
+    }
+
+    void setLoadedClasses(java.util.Collection<String> loadedClasses) {
+        List<String> sorted = new ArrayList<>(loadedClasses);
+        Collections.sort(sorted);
+        this.loadedClasses = Collections.unmodifiableList(sorted);
+    }
+}
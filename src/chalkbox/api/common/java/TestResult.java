@@ -0,0 +1,121 @@
+package chalkbox.api.common.java;
+
+import chalkbox.api.collections.Data;
+import chalkbox.api.collections.DataPath;
+
+/**
+ * Result of running a single JUnit test.
+ *
+ * Results are recorded by a {@link JUnitListener} as the test runs, and
+ * converted to the results JSON with {@link #toData(boolean)} once grading
+ * is complete.
+ */
+public class TestResult {
+
+    /* Paths of the values set in the results JSON */
+    private static final DataPath PASSES = DataPath.of("extra_data.passes");
+    private static final DataPath FAILS = DataPath.of("extra_data.fails");
+    private static final DataPath TOTAL = DataPath.of("extra_data.total");
+    private static final DataPath ELAPSED_MS = DataPath.of("extra_data.elapsed_ms");
+    private static final DataPath CPU_MS = DataPath.of("extra_data.cpu_ms");
+    private static final DataPath STARTED_MS = DataPath.of("extra_data.timing.started_ms");
+    private static final DataPath TEST_MS = DataPath.of("extra_data.timing.test_ms");
+    private static final DataPath CLASS_LOAD_MS = DataPath.of("extra_data.timing.class_load_ms");
+    private static final DataPath CLASS_MS = DataPath.of("extra_data.timing.class_ms");
+
+    /** Name of the test, as ClassName.methodName */
+    private final String name;
+
+    /* Recorded by the listener while the test runs */
+    boolean visible = false;
+    boolean passed = true;
+    String output = "";
+    int weighting = 1;
+    long startedNanos = 0;
+    long elapsedNanos = 0;
+    long cpuNanos = 0;
+
+    /* Recorded by the listener once the test class has finished */
+    boolean timed = false;
+    long classLoadNanos = 0;
+    long classNanos = 0;
+
+    TestResult(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return name of the test, as ClassName.methodName
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return true iff the test passed
+     */
+    public boolean isPassed() {
+        return passed;
+    }
+
+    /**
+     * @return failure message and stack trace of the test, or "" if it passed
+     */
+    public String getOutput() {
+        return output;
+    }
+
+    /**
+     * @return marks multiplier of the test, at least 1
+     */
+    public int getWeighting() {
+        return weighting;
+    }
+
+    /**
+     * @return true iff the result should be visible to students immediately
+     */
+    public boolean isVisible() {
+        return visible;
+    }
+
+    /**
+     * Converts this result to a test result of the results JSON, without a
+     * score.
+     *
+     * If the test ran within a {@link TestBudget}, its wall-clock and CPU
+     * time are recorded as extra_data.elapsed_ms and extra_data.cpu_ms.
+     *
+     * @param timing whether to record when the test ran and how long it and
+     *               its class took, under extra_data.timing
+     * @return the result as JSON data
+     */
+    public Data toData(boolean timing) {
+        Data data = new Data();
+        data.set(PASSES, passed ? 1 : 0);
+        data.set(FAILS, passed ? 0 : 1);
+        data.set(TOTAL, 1);
+        data.set("output", output);
+        data.set("name", name);
+        data.set("weighting", weighting);
+        data.set("visibility", visible ? "visible" : "after_published");
+        if (timed) {
+            data.set(ELAPSED_MS, millis(elapsedNanos));
+            data.set(CPU_MS, millis(cpuNanos));
+        }
+        if (timing) {
+            data.set(STARTED_MS, millis(startedNanos));
+            data.set(TEST_MS, millis(elapsedNanos));
+            data.set(CLASS_LOAD_MS, millis(classLoadNanos));
+            data.set(CLASS_MS, millis(classNanos));
+        }
+        return data;
+    }
+
+    /*
+     * Helper to convert nanoseconds to fractional milliseconds.
+     */
+    static double millis(long nanos) {
+        return nanos / 1_000_000d;
+    }
+}
@@ -0,0 +1,333 @@
+package chalkbox.api.common.java;
+
+import chalkbox.api.common.java.coverage.Coverage;
+import org.junit.runner.JUnitCore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Entry point of a worker JVM started by a {@link WorkerPool}.
+ *
+ * A worker reads test class jobs from its standard input and writes the
+ * results to its standard output, one job at a time, until its standard
+ * input is closed. Before reading any jobs, {@link System#out} is redirected
+ * to standard error, so anything printed by the code under test cannot
+ * corrupt the results written to standard output.
+ *
+ * Each job is encoded as:
+ * <pre>
+ * string    test class name
+ * string    class path
+ * int       number of in-memory classes, followed by for each class:
+ *   string  binary class name
+ *   bytes   byte code
+ * int       number of tests which stop the run if they fail, or -1 to run
+ *           every test, followed by that many strings of test names
+ * boolean   whether to record the classes loaded from the class path
+ * int       maximum number of characters of failure output kept for each
+ *           test, or 0 for no limit
+ * string    directory of the classes to collect coverage of, or an empty
+ *           string to collect none
+ * </pre>
+ * and each result as:
+ * <pre>
+ * int       number of tests passed
+ * int       number of tests failed
+ * int       total number of tests
+ * string    output
+ * int       number of tests run, followed by for each test:
+ *   string  test name
+ *   boolean whether the test passed
+ * boolean   whether the run stopped early, followed by the name of the test
+ *           that stopped it if so
+ * double    milliseconds taken to load the test class
+ * double    milliseconds taken to run the test class
+ * double    milliseconds taken by the tests themselves
+ * int       number of classes loaded from the class path, or -1 if not
+ *           recorded, followed by that many class names
+ * int       number of classes with coverage, followed by for each class:
+ *   string  binary class name
+ *   bytes   probes of the class, one byte for each probe
+ * </pre>
+ * where a string is written as UTF-8 bytes and bytes are written as an int
+ * length followed by the bytes themselves.
+ */
+public class TestWorker {
+
+    /**
+     * Maximum length of bytes read from the other end, so a corrupted
+     * stream fails to be read rather than exhausting memory
+     */
+    private static final int MAX_BYTES = 256 * 1024 * 1024;
+
+    public static void main(String[] args) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(FileDescriptor.in)));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(FileDescriptor.out)));
+
+        /* Keep anything printed by tests away from the results */
+        System.setOut(new PrintStream(new FileOutputStream(FileDescriptor.err), true));
+        /* ... and stop tests reading the jobs */
+        System.setIn(new ByteArrayInputStream(new byte[0]));
+
+        /* Load JUnit before the first job arrives */
+        new JUnitCore();
+
+        while (true) {
+            String className;
+            try {
+                className = readString(in);
+            } catch (EOFException e) {
+                return; // pool has closed this worker
+            }
+            String classPath = readString(in);
+            Map<String, byte[]> classes = new HashMap<>();
+            int numClasses = in.readInt();
+            for (int i = 0; i < numClasses; i++) {
+                classes.put(readString(in), readBytes(in));
+            }
+            Set<String> mustPass = null;
+            int numMustPass = in.readInt();
+            if (numMustPass >= 0) {
+                mustPass = new HashSet<>();
+                for (int i = 0; i < numMustPass; i++) {
+                    mustPass.add(readString(in));
+                }
+            }
+
+            boolean recordLoads = in.readBoolean();
+            int outputLimit = in.readInt();
+            Coverage coverage = openCoverage(readString(in));
+
+            TestClassResult results;
+            if (mustPass != null) {
+                results = JUnitRunner.runTestsUntilFailure(className, classPath,
+                        classes, mustPass, outputLimit);
+            } else if (recordLoads) {
+                results = JUnitRunner.runTestsRecordingLoads(className, classPath,
+                        classes, coverage, outputLimit);
+            } else {
+                results = JUnitRunner.runTestsCombined(className, classPath, classes,
+                        coverage, outputLimit);
+            }
+            writeResults(out, results);
+            writeCoverage(out, coverage);
+            out.flush();
+        }
+    }
+
+    /*
+     * Helper to start collecting coverage of the classes in a directory for
+     * a single job, returning null if there is no directory or it cannot be
+     * read.
+     */
+    private static Coverage openCoverage(String directory) {
+        if (directory.isEmpty()) {
+            return null;
+        }
+        try {
+            return new Coverage(directory);
+        } catch (IOException e) {
+            System.err.println("Unable to read " + directory + " for coverage: " + e);
+            return null;
+        }
+    }
+
+    /*
+     * Helper to write the coverage collected by a job, then release it.
+     */
+    private static void writeCoverage(DataOutputStream out, Coverage coverage)
+            throws IOException {
+        if (coverage == null) {
+            out.writeInt(0);
+            return;
+        }
+        try (coverage) {
+            Map<String, boolean[]> probes = coverage.getProbes();
+            out.writeInt(probes.size());
+            for (Map.Entry<String, boolean[]> entry : probes.entrySet()) {
+                writeString(out, entry.getKey());
+                byte[] bytes = new byte[entry.getValue().length];
+                for (int i = 0; i < bytes.length; i++) {
+                    bytes[i] = (byte) (entry.getValue()[i] ? 1 : 0);
+                }
+                writeBytes(out, bytes);
+            }
+        }
+    }
+
+    /**
+     * Reads the coverage collected by a job, written by a worker after its
+     * results, and adds it to a collector.
+     *
+     * @param in stream to read from
+     * @param coverage collector to add the coverage to, or null to discard it
+     * @throws IOException if the coverage cannot be read
+     */
+    static void readCoverage(DataInputStream in, Coverage coverage) throws IOException {
+        int numClasses = in.readInt();
+        for (int i = 0; i < numClasses; i++) {
+            String className = readString(in);
+            byte[] bytes = readBytes(in);
+            boolean[] probes = new boolean[bytes.length];
+            for (int j = 0; j < bytes.length; j++) {
+                probes[j] = bytes[j] != 0;
+            }
+            if (coverage != null) {
+                coverage.addProbes(className, probes);
+            }
+        }
+    }
+
+    /*
+     * Helper to write the results of a test class run.
+     */
+    private static void writeResults(DataOutputStream out, TestClassResult results)
+            throws IOException {
+        out.writeInt(results.getPasses());
+        out.writeInt(results.getFails());
+        out.writeInt(results.getTotal());
+        writeString(out, results.getOutput());
+        out.writeInt(results.getTests().size());
+        for (TestResult test : results.getTests()) {
+            writeString(out, test.getName());
+            out.writeBoolean(test.isPassed());
+        }
+        String stoppedAt = results.getStoppedAt();
+        out.writeBoolean(stoppedAt != null);
+        if (stoppedAt != null) {
+            writeString(out, stoppedAt);
+        }
+        out.writeDouble(results.getClassLoadMillis());
+        out.writeDouble(results.getClassMillis());
+        out.writeDouble(results.getTestsMillis());
+        List<String> loaded = results.getLoadedClasses();
+        out.writeInt(loaded == null ? -1 : loaded.size());
+        if (loaded != null) {
+            for (String name : loaded) {
+                writeString(out, name);
+            }
+        }
+    }
+
+    /**
+     * Reads the results of a test class run written by a worker.
+     *
+     * Only the name and outcome of each test are sent, so the tests of the
+     * result have no output, weighting or timing of their own.
+     *
+     * @param in stream to read from
+     * @return results in the same form as {@link JUnitRunner#runTestsCombined}
+     * @throws IOException if the results cannot be read
+     */
+    static TestClassResult readResults(DataInputStream in) throws IOException {
+        int passes = in.readInt();
+        int fails = in.readInt();
+        int total = in.readInt();
+        String output = readString(in);
+        List<TestResult> tests = new ArrayList<>();
+        int numTests = in.readInt();
+        for (int i = 0; i < numTests; i++) {
+            TestResult test = new TestResult(readString(in));
+            test.passed = in.readBoolean();
+            tests.add(test);
+        }
+        String stoppedAt = in.readBoolean() ? readString(in) : null;
+        TestClassResult results = new TestClassResult(passes, fails, total,
+                output, tests, stoppedAt, in.readDouble(), in.readDouble(),
+                in.readDouble());
+        int numLoaded = in.readInt();
+        if (numLoaded >= 0) {
+            List<String> loaded = new ArrayList<>();
+            for (int i = 0; i < numLoaded; i++) {
+                loaded.add(readString(in));
+            }
+            results.setLoadedClasses(loaded);
+        }
+        return results;
+    }
+
+    /**
+     * Writes a test class job for a worker.
+     *
+     * @param out stream to write to
+     * @param className name of the test class to run
+     * @param classPath class path to load classes from
+     * @param classes in-memory classes, loaded after the class path
+     * @param mustPass tests which stop the run if they fail, or null
+     * @param recordLoads whether to record the classes loaded from the class
+     *                    path
+     * @param outputLimit maximum number of characters of failure output kept
+     *                    for each test, or 0 for no limit
+     * @param coverageDirectory directory of the classes to collect coverage
+     *                          of, or null to collect none
+     * @throws IOException if the job cannot be written
+     */
+    static void writeJob(DataOutputStream out, String className, String classPath,
+                         Map<String, byte[]> classes, Set<String> mustPass,
+                         boolean recordLoads, int outputLimit,
+                         String coverageDirectory)
+            throws IOException {
+        writeString(out, className);
+        writeString(out, classPath);
+        out.writeInt(classes.size());
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            writeString(out, entry.getKey());
+            writeBytes(out, entry.getValue());
+        }
+        if (mustPass == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(mustPass.size());
+            for (String name : mustPass) {
+                writeString(out, name);
+            }
+        }
+        out.writeBoolean(recordLoads);
+        out.writeInt(outputLimit);
+        writeString(out, coverageDirectory == null ? "" : coverageDirectory);
+    }
+
+    private static void writeString(DataOutputStream out, String string)
+            throws IOException {
+        writeBytes(out, string.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes)
+            throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_BYTES) {
+            throw new IOException("Invalid length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
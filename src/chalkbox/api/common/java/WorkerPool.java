@@ -0,0 +1,240 @@
+package chalkbox.api.common.java;
+
+import chalkbox.api.common.java.coverage.Coverage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Pool of pre-started worker JVMs that run JUnit test classes in isolation
+ * from the grader.
+ *
+ * Code under test that calls {@link System#exit}, runs forever or exhausts
+ * the heap only takes down its worker, rather than the whole grading run.
+ * Workers are started ahead of time and reused for several jobs, to avoid
+ * paying for JVM startup on every test class.
+ *
+ * A worker is replaced with a new one once it has run a given number of
+ * jobs, or as soon as a job fails or times out, so no worker runs with
+ * state left behind by a misbehaving job for long. Jobs and results are
+ * exchanged over each worker's standard input and output, as described in
+ * {@link TestWorker}.
+ */
+public class WorkerPool {
+
+    /** Logger */
+    private static final Logger LOGGER = Logger.getLogger(WorkerPool.class.getName());
+
+    /**
+     * A running worker JVM.
+     */
+    private class Worker {
+        private final Process process;
+        private final DataOutputStream in;
+        private final DataInputStream out;
+        private int jobs = 0;
+
+        private Worker() throws IOException {
+            List<String> command = new ArrayList<>();
+            command.add(System.getProperty("java.home") + File.separator
+                    + "bin" + File.separator + "java");
+            command.addAll(jvmArgs);
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(TestWorker.class.getName());
+
+            this.process = new ProcessBuilder(command)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            this.in = new DataOutputStream(new BufferedOutputStream(
+                    process.getOutputStream()));
+            this.out = new DataInputStream(new BufferedInputStream(
+                    process.getInputStream()));
+        }
+
+        private void destroy() {
+            process.destroyForcibly();
+        }
+    }
+
+    /** Extra arguments to start each worker JVM with, e.g. heap limits */
+    private final List<String> jvmArgs;
+
+    /** Number of jobs a worker runs before it is replaced */
+    private final int jobsPerWorker;
+
+    /** Workers waiting for a job */
+    private final BlockingQueue<Worker> idle = new LinkedBlockingQueue<>();
+
+    /** Timer used to kill workers whose job has run for too long */
+    private final ScheduledExecutorService timer =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "chalkbox-worker-timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /** Every worker started, so they can be killed when the grader exits */
+    private final List<Worker> workers = new ArrayList<>();
+
+    /** Hook that kills every worker when the grader exits */
+    private final Thread shutdownHook = new Thread(this::close);
+
+    /** Whether the pool has been closed, after which no workers are started */
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a pool and starts its workers.
+     *
+     * @param size number of workers, and so the number of jobs that can run
+     *             at once
+     * @param jobsPerWorker number of jobs a worker runs before it is replaced
+     * @param jvmArgs extra arguments to start each worker JVM with
+     * @throws IOException if a worker JVM cannot be started
+     */
+    public WorkerPool(int size, int jobsPerWorker, List<String> jvmArgs)
+            throws IOException {
+        this.jobsPerWorker = jobsPerWorker;
+        this.jvmArgs = List.copyOf(jvmArgs);
+        for (int i = 0; i < size; i++) {
+            idle.add(start());
+        }
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Runs a JUnit test class on the next available worker.
+     *
+     * If the job times out or the worker fails, the worker is replaced and
+     * the returned results record a single failed test.
+     *
+     * @param className name of the test class to run
+     * @param classPath class path to load classes from
+     * @param classes in-memory classes, loaded after the class path
+     * @param mustPass tests which stop the run if they fail, or null to run
+     *                 every test
+     * @param recordLoads whether to record the classes loaded from the class
+     *                    path, as in {@link JUnitRunner#runTestsRecordingLoads}
+     * @param coverage collector to add the coverage collected by the worker
+     *                 to, or null to collect none
+     * @param outputLimit maximum number of characters of failure output kept
+     *                    for each test, or 0 for no limit
+     * @param timeout milliseconds to wait for the results, or 0 for no limit
+     * @return results in the same form as {@link JUnitRunner#runTestsCombined}
+     * @throws InterruptedException if interrupted while waiting for a worker
+     */
+    public TestClassResult run(String className, String classPath, Map<String, byte[]> classes,
+                               Set<String> mustPass, boolean recordLoads,
+                               Coverage coverage, int outputLimit, long timeout)
+            throws InterruptedException {
+        Worker worker = idle.take();
+        boolean reusable = false;
+        try {
+            ScheduledFuture<?> kill = null;
+            if (timeout > 0) {
+                kill = timer.schedule(worker::destroy, timeout, TimeUnit.MILLISECONDS);
+            }
+
+            TestClassResult results;
+            boolean failed = false;
+            try {
+                TestWorker.writeJob(worker.in, className, classPath, classes, mustPass,
+                        recordLoads, outputLimit,
+                        coverage == null ? null : coverage.getDirectory());
+                worker.in.flush();
+                results = TestWorker.readResults(worker.out);
+                TestWorker.readCoverage(worker.out, coverage);
+            } catch (Throwable e) {
+                /* Anything going wrong with the protocol means the worker is unusable */
+                failed = true;
+                results = null;
+            }
+            /* The worker was killed if the timer could not be cancelled */
+            boolean timedOut = kill != null && !kill.cancel(false);
+
+            if (failed) {
+                LOGGER.warning("Test worker " + (timedOut ? "timed out" : "failed")
+                        + " running " + className);
+                results = TestClassResult.failed(className + (timedOut
+                        ? " timed out after " + timeout + "ms\n"
+                        : " stopped the test runner unexpectedly\n"));
+            }
+
+            worker.jobs++;
+            reusable = !failed && !timedOut && worker.jobs < jobsPerWorker;
+            return results;
+        } finally {
+            /* Always return a worker to the pool, so its slot is never lost */
+            if (!reusable) {
+                worker.destroy();
+                worker = replace(worker);
+            }
+            idle.add(worker);
+        }
+    }
+
+    /**
+     * Kills every worker in the pool.
+     */
+    public void close() {
+        closed = true;
+        timer.shutdownNow();
+        synchronized (workers) {
+            for (Worker worker : workers) {
+                worker.destroy();
+            }
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            /* Already shutting down, which is when the hook runs */
+        }
+    }
+
+    /*
+     * Helper to start a new worker.
+     */
+    private Worker start() throws IOException {
+        Worker worker = new Worker();
+        synchronized (workers) {
+            workers.add(worker);
+        }
+        return worker;
+    }
+
+    /*
+     * Helper to replace a worker with a new one. If the pool is closed or a
+     * new worker cannot be started, the old (destroyed) worker is returned
+     * instead, so the next job given to it fails and tries again to replace
+     * it.
+     */
+    private Worker replace(Worker worker) {
+        synchronized (workers) {
+            workers.remove(worker);
+        }
+        if (closed) {
+            return worker;
+        }
+        try {
+            return start();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.severe("Unable to start test worker: " + e);
+            return worker;
+        }
+    }
+}
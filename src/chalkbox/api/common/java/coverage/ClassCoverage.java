@@ -0,0 +1,118 @@
+package chalkbox.api.common.java.coverage;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The probes of an instrumented class, and which of them have run.
+ *
+ * A class has a line probe for each source line with code, and a pair of
+ * branch probes for each conditional jump, one for the jump being taken
+ * and one for it not being taken.
+ */
+public class ClassCoverage {
+
+    /** Binary name of the class */
+    private final String className;
+
+    /** Id of the probe array in {@link CoverageRuntime} */
+    private final int id;
+
+    /** Byte code of the instrumented class */
+    private final byte[] instrumentedBytes;
+
+    /** Probe array written to by the instrumented class */
+    private final boolean[] probes;
+
+    /** Source line of each probe */
+    private final int[] lines;
+
+    /** Whether each probe is a branch probe rather than a line probe */
+    private final boolean[] branches;
+
+    ClassCoverage(String className, int id, byte[] instrumentedBytes,
+                  int[] lines, boolean[] branches) {
+        this.className = className;
+        this.id = id;
+        this.instrumentedBytes = instrumentedBytes;
+        this.probes = new boolean[lines.length];
+        this.lines = lines;
+        this.branches = branches;
+    }
+
+    /**
+     * @return binary name of the class
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * @return source lines of the class with code
+     */
+    public Set<Integer> getLines() {
+        return lines(false);
+    }
+
+    /**
+     * @return source lines of the class with code that has run
+     */
+    public Set<Integer> getCoveredLines() {
+        return lines(true);
+    }
+
+    /**
+     * @return number of branches in the class
+     */
+    public int getBranches() {
+        int count = 0;
+        for (boolean branch : branches) {
+            if (branch) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return number of branches in the class that have been taken
+     */
+    public int getCoveredBranches() {
+        int count = 0;
+        for (int i = 0; i < probes.length; i++) {
+            if (branches[i] && probes[i]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /*
+     * Helper to collect the lines of the line probes, optionally only those
+     * that have run.
+     */
+    private Set<Integer> lines(boolean covered) {
+        Set<Integer> result = new HashSet<>();
+        for (int i = 0; i < probes.length; i++) {
+            if (!branches[i] && (probes[i] || !covered)) {
+                result.add(lines[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return byte code of the instrumented class
+     */
+    byte[] getInstrumentedBytes() {
+        return instrumentedBytes;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    boolean[] getProbes() {
+        return probes;
+    }
+}
@@ -0,0 +1,233 @@
+package chalkbox.api.common.java.coverage;
+
+import chalkbox.api.common.java.ClassTransformer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Collects line and branch coverage of the compiled classes in a directory,
+ * such as a compiled sample solution, while tests run against them.
+ *
+ * A coverage collector is a {@link ClassTransformer}, which instruments the
+ * classes in its directory as they are defined. Each class is instrumented
+ * once, and every class loader that defines it shares the same probes, so
+ * coverage accumulates across every test class run with this collector.
+ *
+ * Coverage collected in another JVM, such as a worker JVM running the same
+ * classes with a collector of its own, can be added to a collector with
+ * {@link #addProbes(String, boolean[])}.
+ *
+ * A collector must be closed once its report has been made, so its probe
+ * arrays can be released.
+ */
+public class Coverage implements ClassTransformer, AutoCloseable {
+
+    /** Logger */
+    private static final Logger LOGGER = Logger.getLogger(Coverage.class.getName());
+
+    /** Directory containing the classes to collect coverage of */
+    private final Path directory;
+
+    /** Binary names of the classes in the directory */
+    private final Set<String> classNames = new HashSet<>();
+
+    /** Probes of each class instrumented so far */
+    private final Map<String, ClassCoverage> instrumented = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a collector for the compiled classes in a directory.
+     *
+     * @param directory directory containing compiled classes, in directories
+     *                  matching their packages
+     * @throws IOException if the directory cannot be read
+     */
+    public Coverage(String directory) throws IOException {
+        this.directory = new File(directory).toPath();
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            files.filter(file -> file.toString().endsWith(".class"))
+                    .forEach(file -> classNames.add(toClassName(file)));
+        }
+    }
+
+    @Override
+    public byte[] transform(String className, byte[] bytes) {
+        if (!classNames.contains(className)) {
+            return null;
+        }
+        ClassCoverage coverage = instrument(className, bytes);
+        return coverage == null ? null : coverage.getInstrumentedBytes();
+    }
+
+    /**
+     * @return directory containing the classes to collect coverage of
+     */
+    public String getDirectory() {
+        return directory.toString();
+    }
+
+    /**
+     * Gets a copy of the probes of each class instrumented so far, which
+     * record the coverage collected by this collector.
+     *
+     * @return probes of each class, by binary class name
+     */
+    public Map<String, boolean[]> getProbes() {
+        Map<String, boolean[]> probes = new TreeMap<>();
+        for (ClassCoverage coverage : instrumented.values()) {
+            probes.put(coverage.getClassName(), coverage.getProbes().clone());
+        }
+        return probes;
+    }
+
+    /**
+     * Adds the probes of a class collected by another collector of the same
+     * directory, such as one in a worker JVM. A probe that has run in either
+     * collector counts as having run.
+     *
+     * @param className binary name of the class
+     * @param probes probes of the class, as returned by {@link #getProbes()}
+     */
+    public void addProbes(String className, boolean[] probes) {
+        if (!classNames.contains(className)) {
+            return;
+        }
+        ClassCoverage coverage = instrumented.get(className);
+        if (coverage == null) {
+            coverage = instrument(className, read(className));
+        }
+        if (coverage == null || coverage.getProbes().length != probes.length) {
+            LOGGER.warning("Unable to add coverage of " + className);
+            return;
+        }
+        boolean[] classProbes = coverage.getProbes();
+        for (int i = 0; i < probes.length; i++) {
+            classProbes[i] |= probes[i];
+        }
+    }
+
+    /**
+     * Makes a report of the line and branch coverage of each top level class
+     * in the directory, including nested classes in their top level class.
+     * Classes that were never loaded are reported as having no coverage.
+     *
+     * @return a line of coverage for each class, followed by the total
+     */
+    public String report() {
+        Map<String, Set<Integer>> lines = new TreeMap<>();
+        Map<String, Set<Integer>> coveredLines = new TreeMap<>();
+        Map<String, Integer> branches = new TreeMap<>();
+        Map<String, Integer> coveredBranches = new TreeMap<>();
+        for (String className : classNames) {
+            ClassCoverage coverage = instrumented.get(className);
+            if (coverage == null) {
+                coverage = instrument(className, read(className));
+            }
+            if (coverage == null) {
+                continue;
+            }
+            String topLevel = className.split("\\$")[0];
+            lines.computeIfAbsent(topLevel, name -> new HashSet<>())
+                    .addAll(coverage.getLines());
+            coveredLines.computeIfAbsent(topLevel, name -> new HashSet<>())
+                    .addAll(coverage.getCoveredLines());
+            branches.merge(topLevel, coverage.getBranches(), Integer::sum);
+            coveredBranches.merge(topLevel, coverage.getCoveredBranches(), Integer::sum);
+        }
+
+        StringJoiner report = new StringJoiner("\n");
+        int totalLines = 0;
+        int totalCoveredLines = 0;
+        int totalBranches = 0;
+        int totalCoveredBranches = 0;
+        for (String className : lines.keySet()) {
+            report.add(format(className, coveredLines.get(className).size(),
+                    lines.get(className).size(), coveredBranches.get(className),
+                    branches.get(className)));
+            totalLines += lines.get(className).size();
+            totalCoveredLines += coveredLines.get(className).size();
+            totalBranches += branches.get(className);
+            totalCoveredBranches += coveredBranches.get(className);
+        }
+        report.add(format("Total", totalCoveredLines, totalLines,
+                totalCoveredBranches, totalBranches));
+        return report.toString();
+    }
+
+    /**
+     * Releases the probe arrays of every instrumented class. Classes that
+     * are initialised afterwards no longer record their coverage.
+     */
+    @Override
+    public void close() {
+        for (ClassCoverage coverage : instrumented.values()) {
+            CoverageRuntime.release(coverage.getId());
+        }
+    }
+
+    /*
+     * Helper to instrument a class the first time it is needed, returning
+     * null if it cannot be instrumented.
+     */
+    private ClassCoverage instrument(String className, byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        try {
+            return instrumented.computeIfAbsent(className,
+                    name -> new CoverageInstrumenter(name).instrument(bytes));
+        } catch (RuntimeException e) {
+            LOGGER.warning("Unable to instrument " + className + ": " + e);
+            return null;
+        }
+    }
+
+    /*
+     * Helper to read the byte code of a class in the directory.
+     */
+    private byte[] read(String className) {
+        try {
+            return Files.readAllBytes(directory.resolve(
+                    className.replace('.', File.separatorChar) + ".class"));
+        } catch (IOException e) {
+            LOGGER.warning("Unable to read " + className + ": " + e);
+            return null;
+        }
+    }
+
+    /*
+     * Helper to convert the path of a class file to its binary class name.
+     */
+    private String toClassName(Path file) {
+        String path = directory.relativize(file).toString();
+        return path.substring(0, path.length() - ".class".length())
+                .replace(File.separatorChar, '.');
+    }
+
+    /*
+     * Helper to format a line of the report.
+     */
+    private static String format(String name, int coveredLines, int lines,
+                                 int coveredBranches, int branches) {
+        return name + ": " + coveredLines + "/" + lines + " lines ("
+                + percent(coveredLines, lines) + "), " + coveredBranches + "/"
+                + branches + " branches (" + percent(coveredBranches, branches) + ")";
+    }
+
+    private static String percent(int covered, int total) {
+        if (total == 0) {
+            return "-";
+        }
+        return String.format("%.1f%%", 100d * covered / total);
+    }
+}
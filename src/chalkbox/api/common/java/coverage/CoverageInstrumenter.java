@@ -0,0 +1,406 @@
+package chalkbox.api.common.java.coverage;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.AnalyzerAdapter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Adds coverage probes to the byte code of a class.
+ *
+ * The class is given a synthetic static field holding its probe array, which
+ * is fetched from {@link CoverageRuntime} once, at the start of the class's
+ * static initialiser. A probe is then a single store of true into the array,
+ * inserted before the first instruction of each source line.
+ *
+ * Each conditional jump is given a probe on each of its edges: the jump is
+ * inverted to fall through to the probe for it being taken, followed by a
+ * jump to the original target, and jumps to the probe for it not being
+ * taken otherwise. The stack map frame needed at the inverted jump's target
+ * is taken from an {@link AnalyzerAdapter}, so no class is ever loaded to
+ * compute frames.
+ */
+class CoverageInstrumenter {
+
+    /** Internal name of the runtime class the probe array is fetched from */
+    private static final String RUNTIME = "chalkbox/api/common/java/coverage/CoverageRuntime";
+
+    /** Name of the synthetic field holding the probe array */
+    private static final String PROBES_FIELD = "$chalkboxProbes";
+
+    /** Binary name of the class */
+    private final String className;
+
+    /** Id reserved for the class's probe array */
+    private final int id;
+
+    /** Source line of each probe */
+    private final List<Integer> lines = new ArrayList<>();
+
+    /** Whether each probe is a branch probe */
+    private final List<Boolean> branches = new ArrayList<>();
+
+    /** Line probe of each source line, so each line has a single probe */
+    private final Map<Integer, Integer> lineProbes = new HashMap<>();
+
+    /* Internal name of the class, and whether it is an interface */
+    private String owner;
+    private boolean isInterface;
+
+    /** Whether the class's byte code has stack map frames to keep valid */
+    private boolean hasFrames;
+
+    /**
+     * Creates an instrumenter for a class, reserving an id for its probe
+     * array.
+     *
+     * @param className binary name of the class
+     */
+    CoverageInstrumenter(String className) {
+        this.className = className;
+        this.id = CoverageRuntime.reserve();
+    }
+
+    /**
+     * Instruments the byte code of the class, attaching a new probe array
+     * to the runtime for the instrumented class to write to.
+     *
+     * @param bytes original byte code
+     * @return probes of the instrumented class, which must be defined with
+     * the byte code returned by {@link ClassCoverage#getInstrumentedBytes()}
+     */
+    ClassCoverage instrument(byte[] bytes) {
+        ClassReader reader = new ClassReader(bytes);
+        ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+        reader.accept(new ClassInstrumenter(writer), ClassReader.EXPAND_FRAMES);
+
+        int[] probeLines = new int[lines.size()];
+        boolean[] branchProbes = new boolean[probeLines.length];
+        for (int i = 0; i < probeLines.length; i++) {
+            probeLines[i] = lines.get(i);
+            branchProbes[i] = branches.get(i);
+        }
+        ClassCoverage coverage = new ClassCoverage(className, id,
+                writer.toByteArray(), probeLines, branchProbes);
+        CoverageRuntime.attach(id, coverage.getProbes());
+        return coverage;
+    }
+
+    /*
+     * Helper to allocate a new probe.
+     */
+    private int newProbe(int line, boolean branch) {
+        lines.add(line);
+        branches.add(branch);
+        return lines.size() - 1;
+    }
+
+    /*
+     * Helper to insert the code that fetches the probe array into the
+     * synthetic field.
+     */
+    private void initProbes(MethodVisitor mv) {
+        push(mv, id);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME, "probes", "(I)[Z", false);
+        mv.visitFieldInsn(Opcodes.PUTSTATIC, owner, PROBES_FIELD, "[Z");
+    }
+
+    /*
+     * Helper to insert the code that records that a probe has run.
+     */
+    private void probe(MethodVisitor mv, int probe) {
+        mv.visitFieldInsn(Opcodes.GETSTATIC, owner, PROBES_FIELD, "[Z");
+        push(mv, probe);
+        mv.visitInsn(Opcodes.ICONST_1);
+        mv.visitInsn(Opcodes.BASTORE);
+    }
+
+    /*
+     * Helper to push an int constant with the shortest instruction.
+     */
+    private static void push(MethodVisitor mv, int value) {
+        if (value >= -1 && value <= 5) {
+            mv.visitInsn(Opcodes.ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(Opcodes.BIPUSH, value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            mv.visitIntInsn(Opcodes.SIPUSH, value);
+        } else {
+            mv.visitLdcInsn(value);
+        }
+    }
+
+    /*
+     * Helper to convert the locals or stack of an AnalyzerAdapter, where a
+     * long or double takes two entries, to a frame, where it takes one,
+     * leaving out the given number of single entries from the end.
+     */
+    private static Object[] frameTypes(List<Object> types, int drop) {
+        List<Object> frame = new ArrayList<>();
+        for (int i = 0; i < types.size() - drop; i++) {
+            Object type = types.get(i);
+            frame.add(type);
+            if (type == Opcodes.LONG || type == Opcodes.DOUBLE) {
+                i++;
+            }
+        }
+        return frame.toArray();
+    }
+
+    /*
+     * Helper to get the conditional jump taken exactly when the given one is
+     * not. The jumps come in pairs of opposites, starting from IFEQ and
+     * IFNULL.
+     */
+    private static int invert(int opcode) {
+        int first = opcode >= Opcodes.IFNULL ? Opcodes.IFNULL : Opcodes.IFEQ;
+        return first + ((opcode - first) ^ 1);
+    }
+
+    /**
+     * Instruments every method of a class with code, except bridge methods
+     * generated by the compiler, and adds the field holding the probe array.
+     */
+    private class ClassInstrumenter extends ClassVisitor {
+
+        /** Whether the class has a static initialiser of its own */
+        private boolean hasClinit = false;
+
+        private ClassInstrumenter(ClassVisitor cv) {
+            super(Opcodes.ASM9, cv);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature,
+                          String superName, String[] interfaces) {
+            super.visit(version, access, name, signature, superName, interfaces);
+            owner = name;
+            isInterface = (access & Opcodes.ACC_INTERFACE) != 0;
+            hasFrames = (version & 0xFFFF) >= Opcodes.V1_6;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor,
+                                         String signature, String[] exceptions) {
+            MethodVisitor mv = super.visitMethod(access, name, descriptor,
+                    signature, exceptions);
+            boolean clinit = name.equals("<clinit>");
+            hasClinit |= clinit;
+            if ((access & (Opcodes.ACC_BRIDGE | Opcodes.ACC_ABSTRACT
+                    | Opcodes.ACC_NATIVE)) != 0) {
+                return mv;
+            }
+            return new MethodInstrumenter(new AnalyzerAdapter(owner, access, name,
+                    descriptor, mv), clinit);
+        }
+
+        @Override
+        public void visitEnd() {
+            /* Interface fields must be public */
+            super.visitField((isInterface ? Opcodes.ACC_PUBLIC : Opcodes.ACC_PRIVATE
+                            | Opcodes.ACC_TRANSIENT) | Opcodes.ACC_STATIC
+                            | Opcodes.ACC_FINAL | Opcodes.ACC_SYNTHETIC,
+                    PROBES_FIELD, "[Z", null, null).visitEnd();
+            if (!hasClinit) {
+                MethodVisitor mv = super.visitMethod(Opcodes.ACC_STATIC, "<clinit>",
+                        "()V", null, null);
+                mv.visitCode();
+                initProbes(mv);
+                mv.visitInsn(Opcodes.RETURN);
+                mv.visitMaxs(0, 0);
+                mv.visitEnd();
+            }
+            super.visitEnd();
+        }
+    }
+
+    /**
+     * Inserts the probes into a single method.
+     *
+     * The class reader visits the line number of an instruction before the
+     * stack map frame at that instruction, so line probes are held back
+     * until the instruction itself is visited.
+     */
+    private class MethodInstrumenter extends MethodVisitor {
+
+        /** Tracks the types of the locals and stack at each instruction */
+        private final AnalyzerAdapter analyzer;
+
+        /** Whether the method is the static initialiser, which fetches the probes */
+        private final boolean clinit;
+
+        /** Line whose probe is yet to be inserted, or -1 */
+        private int pendingLine = -1;
+
+        /** Line of the instructions being visited */
+        private int currentLine = 0;
+
+        private MethodInstrumenter(AnalyzerAdapter analyzer, boolean clinit) {
+            super(Opcodes.ASM9, analyzer);
+            this.analyzer = analyzer;
+            this.clinit = clinit;
+        }
+
+        @Override
+        public void visitCode() {
+            super.visitCode();
+            if (clinit) {
+                initProbes(mv);
+            }
+        }
+
+        @Override
+        public void visitLineNumber(int line, Label start) {
+            super.visitLineNumber(line, start);
+            pendingLine = line;
+            currentLine = line;
+        }
+
+        /*
+         * Helper to insert the held back line probe, if any.
+         */
+        private void probeLine() {
+            if (pendingLine < 0) {
+                return;
+            }
+            Integer probe = lineProbes.get(pendingLine);
+            if (probe == null) {
+                probe = newProbe(pendingLine, false);
+                lineProbes.put(pendingLine, probe);
+            }
+            pendingLine = -1;
+            probe(mv, probe);
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label) {
+            probeLine();
+            int operands;
+            if (opcode >= Opcodes.IFEQ && opcode <= Opcodes.IFLE
+                    || opcode == Opcodes.IFNULL || opcode == Opcodes.IFNONNULL) {
+                operands = 1;
+            } else if (opcode >= Opcodes.IF_ICMPEQ && opcode <= Opcodes.IF_ACMPNE) {
+                operands = 2;
+            } else {
+                super.visitJumpInsn(opcode, label);
+                return;
+            }
+            /* Unreachable code has no frame, and old classes need none */
+            if (hasFrames && analyzer.locals == null) {
+                super.visitJumpInsn(opcode, label);
+                return;
+            }
+
+            int probe = newProbe(currentLine, true);
+            newProbe(currentLine, true);
+            Object[] locals = hasFrames ? frameTypes(analyzer.locals, 0) : null;
+            Object[] stack = hasFrames ? frameTypes(analyzer.stack, operands) : null;
+            Label notTaken = new Label();
+            super.visitJumpInsn(invert(opcode), notTaken);
+            probe(mv, probe);
+            super.visitJumpInsn(Opcodes.GOTO, label);
+            super.visitLabel(notTaken);
+            if (hasFrames) {
+                super.visitFrame(Opcodes.F_NEW, locals.length, locals,
+                        stack.length, stack);
+            }
+            probe(mv, probe + 1);
+        }
+
+        @Override
+        public void visitInsn(int opcode) {
+            probeLine();
+            super.visitInsn(opcode);
+        }
+
+        @Override
+        public void visitIntInsn(int opcode, int operand) {
+            probeLine();
+            super.visitIntInsn(opcode, operand);
+        }
+
+        @Override
+        public void visitVarInsn(int opcode, int var) {
+            probeLine();
+            super.visitVarInsn(opcode, var);
+        }
+
+        @Override
+        public void visitTypeInsn(int opcode, String type) {
+            if (opcode == Opcodes.NEW) {
+                /*
+                 * Frames refer to the object being created by the offset of
+                 * its NEW instruction, so the probe cannot go in front of it
+                 */
+                super.visitTypeInsn(opcode, type);
+                probeLine();
+                return;
+            }
+            probeLine();
+            super.visitTypeInsn(opcode, type);
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name,
+                                   String descriptor) {
+            probeLine();
+            super.visitFieldInsn(opcode, owner, name, descriptor);
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name,
+                                    String descriptor, boolean isInterface) {
+            probeLine();
+            super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(String name, String descriptor,
+                                           Handle bootstrapMethodHandle,
+                                           Object... bootstrapMethodArguments) {
+            probeLine();
+            super.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle,
+                    bootstrapMethodArguments);
+        }
+
+        @Override
+        public void visitLdcInsn(Object value) {
+            probeLine();
+            super.visitLdcInsn(value);
+        }
+
+        @Override
+        public void visitIincInsn(int var, int increment) {
+            probeLine();
+            super.visitIincInsn(var, increment);
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min, int max, Label dflt,
+                                         Label... labels) {
+            probeLine();
+            super.visitTableSwitchInsn(min, max, dflt, labels);
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+            probeLine();
+            super.visitLookupSwitchInsn(dflt, keys, labels);
+        }
+
+        @Override
+        public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+            probeLine();
+            super.visitMultiANewArrayInsn(descriptor, numDimensions);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package chalkbox.api.common.java.coverage;
+
+import java.util.Arrays;
+
+/**
+ * Probe arrays written to by instrumented classes.
+ *
+ * Each instrumented class is given an id, and records which of its probes
+ * have run in a boolean array registered under that id. An instrumented
+ * class fetches its array from this class once, when it is initialised, so
+ * this class must be loaded by a loader that is visible to every
+ * instrumented class, such as the system class loader.
+ *
+ * Methods called by instrumented code are public, but are not intended to
+ * be called by anything else.
+ */
+public final class CoverageRuntime {
+
+    /** Probe arrays, indexed by id, or null once released */
+    private static boolean[][] probes = new boolean[16][];
+
+    /** Number of probes of each id, so a class can still be initialised after its release */
+    private static int[] sizes = new int[16];
+
+    /** Number of ids handed out so far */
+    private static int ids = 0;
+
+    private CoverageRuntime() {
+    }
+
+    /**
+     * Reserves an id for the probe array of a class about to be instrumented.
+     *
+     * @return id instrumented code must use to fetch its probe array
+     */
+    static synchronized int reserve() {
+        if (ids == probes.length) {
+            probes = Arrays.copyOf(probes, probes.length * 2);
+            sizes = Arrays.copyOf(sizes, sizes.length * 2);
+        }
+        return ids++;
+    }
+
+    /**
+     * Attaches the probe array of an instrumented class to its id. This must
+     * be done before the instrumented class is defined.
+     *
+     * @param id id reserved for the class
+     * @param classProbes probe array of the class
+     */
+    static synchronized void attach(int id, boolean[] classProbes) {
+        probes[id] = classProbes;
+        sizes[id] = classProbes.length;
+    }
+
+    /**
+     * Releases the probe array of an id. Classes initialised afterwards
+     * write to a new array which is never read, while classes already
+     * initialised keep writing to the released array until they are unloaded.
+     *
+     * @param id id of the probe array
+     */
+    static synchronized void release(int id) {
+        probes[id] = null;
+    }
+
+    /**
+     * Fetches the probe array of an instrumented class, called once from the
+     * class's static initialiser.
+     *
+     * @param id id of the probe array
+     * @return the probe array to write to
+     */
+    public static synchronized boolean[] probes(int id) {
+        boolean[] classProbes = probes[id];
+        return classProbes != null ? classProbes : new boolean[sizes[id]];
+    }
+}
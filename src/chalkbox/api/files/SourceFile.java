@@ -42,6 +42,76 @@ public abstract class SourceFile extends SimpleJavaFileObject {
         return Base64.getEncoder().encodeToString(hash);
     }
 
+    /**
+     * Hash the code in the file, ignoring comments and differences in
+     * whitespace, so that two files which only differ in their formatting or
+     * documentation have the same hash
+     *
+     * @return The hash of the code in the file
+     * @throws IOException If an error occurs reading the file contents
+     */
+    public String toCodeHash() throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException algo) {
+            return null; // will surely never occur
+        }
+
+        byte[] hash = digest.digest(stripComments(getContent()).getBytes());
+
+        return Base64.getEncoder().encodeToString(hash);
+    }
+
+    /**
+     * Remove the comments from Java source code and collapse each run of
+     * whitespace outside of string and character literals to a single space
+     *
+     * @param source Java source code
+     * @return The code without comments or redundant whitespace
+     */
+    static String stripComments(String source) {
+        StringBuilder code = new StringBuilder();
+        boolean space = false;
+        int i = 0;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            if (source.startsWith("//", i)) {
+                int end = source.indexOf('\n', i);
+                i = end < 0 ? source.length() : end;
+                space = true;
+            } else if (source.startsWith("/*", i)) {
+                int end = source.indexOf("*/", i + 2);
+                i = end < 0 ? source.length() : end + 2;
+                space = true;
+            } else if (Character.isWhitespace(c)) {
+                i++;
+                space = true;
+            } else {
+                if (space && code.length() > 0) {
+                    code.append(' ');
+                }
+                space = false;
+                if (c == '"' || c == '\'') {
+                    /* Copy literals, including text blocks, as they are */
+                    String quote = source.startsWith("\"\"\"", i)
+                            ? "\"\"\"" : String.valueOf(c);
+                    int end = i + quote.length();
+                    while (end < source.length() && !source.startsWith(quote, end)) {
+                        end += source.charAt(end) == '\\' ? 2 : 1;
+                    }
+                    end = Math.min(end + quote.length(), source.length());
+                    code.append(source, i, end);
+                    i = end;
+                } else {
+                    code.append(c);
+                    i++;
+                }
+            }
+        }
+        return code.toString();
+    }
+
     /**
      * Build a URI from a base URI
      *
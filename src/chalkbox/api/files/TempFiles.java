@@ -0,0 +1,69 @@
+package chalkbox.api.files;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/**
+ * Utility class for creating temporary files that are renamed into place
+ * once written.
+ *
+ * {@link Files#createTempFile} and {@link Files#createTempDirectory} only
+ * give the owner access, which a rename keeps, so files created through
+ * this class are instead given the usual permissions of a new file or
+ * directory (rw-r--r-- and rwxr-xr-x, subject to the umask) where the file
+ * system supports POSIX permissions.
+ */
+public class TempFiles {
+
+    private TempFiles() {
+    }
+
+    /**
+     * Creates an empty temporary file.
+     *
+     * @param directory directory to create the file in
+     * @param prefix start of the file name
+     * @param suffix end of the file name
+     * @return path of the new file
+     * @throws IOException if the file cannot be created
+     */
+    public static Path createFile(Path directory, String prefix, String suffix)
+            throws IOException {
+        if (!isPosix(directory)) {
+            return Files.createTempFile(directory, prefix, suffix);
+        }
+        return Files.createTempFile(directory, prefix, suffix,
+                permissions("rw-r--r--"));
+    }
+
+    /**
+     * Creates an empty temporary directory.
+     *
+     * @param directory directory to create the directory in
+     * @param prefix start of the directory name
+     * @return path of the new directory
+     * @throws IOException if the directory cannot be created
+     */
+    public static Path createDirectory(Path directory, String prefix)
+            throws IOException {
+        if (!isPosix(directory)) {
+            return Files.createTempDirectory(directory, prefix);
+        }
+        return Files.createTempDirectory(directory, prefix,
+                permissions("rwxr-xr-x"));
+    }
+
+    private static boolean isPosix(Path directory) {
+        FileSystem fileSystem = directory.getFileSystem();
+        return fileSystem.supportedFileAttributeViews().contains("posix");
+    }
+
+    private static FileAttribute<?> permissions(String permissions) {
+        return PosixFilePermissions.asFileAttribute(
+                PosixFilePermissions.fromString(permissions));
+    }
+}
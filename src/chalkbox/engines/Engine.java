@@ -1,10 +1,16 @@
 package chalkbox.engines;
 
 import chalkbox.api.collections.Collection;
+import chalkbox.api.collections.Data;
 import chalkbox.collectors.GradescopeCollector;
 import chalkbox.output.GradescopeOutput;
 import org.json.simple.JSONArray;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
 /**
  * Base class for a ChalkBox engine.
  */
@@ -34,6 +40,16 @@ public abstract class Engine implements Configuration {
      */
     private String outputFile;
 
+    /**
+     * Name of the summary file written to the output directory by
+     * {@link #runBatch(String, String)}. Hidden submission directories are
+     * not graded, so no submission's results file can have this name.
+     */
+    public static final String SUMMARY_FILE = ".summary.json";
+
+    /** Whether {@link #prepare()} has succeeded on this engine */
+    private boolean prepared = false;
+
     @Override
     public void validateConfig() throws ConfigFormatException {
         if (courseCode == null || courseCode.isEmpty()) {
@@ -83,6 +99,170 @@ public abstract class Engine implements Configuration {
      */
     public abstract void run();
 
+    /**
+     * Prepares any artefacts that are shared between submissions, such as a
+     * compiled sample solution.
+     *
+     * Called before the first call to {@link #grade()}, and again before
+     * each later call until it succeeds. The default implementation does
+     * nothing.
+     *
+     * @return true iff the artefacts were prepared
+     */
+    protected boolean prepare() {
+        return true;
+    }
+
+    /**
+     * Releases anything held by the prepared artefacts, such as executors
+     * and worker JVMs. The engine should not be used once closed.
+     *
+     * The default implementation does nothing.
+     */
+    public void close() {
+    }
+
+    /**
+     * Grades the current submission and writes its results JSON file.
+     *
+     * The default implementation calls {@link #run()} and reads back the
+     * results file that it wrote. Engines that override {@link #prepare()}
+     * should override this method to reuse the prepared artefacts.
+     *
+     * @return results written for the submission, or null if no results
+     * could be produced
+     */
+    protected Data grade() {
+        run();
+        try {
+            return new Data(new File(outputFile));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Grades a single submission, reusing any artefacts already prepared by
+     * this engine.
+     *
+     * Calls {@link #prepare()} the first time this engine grades a
+     * submission (and again if it failed), so repeated calls only pay for
+     * grading each submission.
+     *
+     * @param submissionPath path of the directory containing the submission
+     * @param outputPath path to write the output JSON file to
+     * @return results written for the submission, or null if no results
+     * could be produced
+     */
+    public Data grade(String submissionPath, String outputPath) {
+        if (!prepared) {
+            prepared = prepare();
+        }
+        setSubmission(submissionPath);
+        setOutputFile(outputPath);
+        return grade();
+    }
+
+    /**
+     * Grades every submission in a directory of submissions in turn.
+     *
+     * Each subdirectory of the submissions directory is treated as a single
+     * submission, other than hidden directories, which are skipped. Shared
+     * artefacts are prepared once, then the results for each submission are
+     * written to <code>&lt;name&gt;.json</code> in the output directory,
+     * where <code>&lt;name&gt;</code> is the name of the submission
+     * directory. A summary of the scores of all submissions is written to
+     * <code>.summary.json</code> in the output directory. The engine is
+     * closed once every submission has been graded.
+     *
+     * @param submissionsPath path of the directory containing submissions
+     * @param outputPath path of the directory to write results to
+     */
+    public void runBatch(String submissionsPath, String outputPath) {
+        File[] submissions = new File(submissionsPath).listFiles(
+                file -> file.isDirectory() && !file.isHidden());
+        if (submissions == null) {
+            System.err.println("Unable to read submissions directory");
+            return;
+        }
+        /* Grade in a deterministic order (alphabetical) */
+        Arrays.sort(submissions);
+
+        File outputDirectory = new File(outputPath);
+        if (!outputDirectory.exists() && !outputDirectory.mkdirs()) {
+            System.err.println("Unable to create output directory");
+            return;
+        }
+
+        JSONArray summary = new JSONArray();
+        try {
+            for (File submission : submissions) {
+                System.out.println("Grading " + submission.getName());
+                Data results = grade(submission.getPath(), new File(outputDirectory,
+                        submission.getName() + ".json").getPath());
+                summary.add(summarise(submission.getName(), results));
+            }
+        } finally {
+            close();
+        }
+
+        Data results = new Data();
+        results.set("submissions", summary);
+        try {
+            GradescopeOutput.write(results, new File(outputDirectory, SUMMARY_FILE));
+        } catch (IOException e) {
+            System.err.println("Unable to write batch summary file");
+        }
+    }
+
+    /**
+     * Summarises the results of a single submission graded in a batch.
+     *
+     * @param name name of the submission
+     * @param results results written for the submission, or null if grading
+     *                failed
+     * @return summary containing the total score and maximum score
+     */
+    private Data summarise(String name, Data results) {
+        Data summary = new Data();
+        summary.set("name", name);
+        summary.set("results", outputFile);
+        if (results == null || !(results.get("tests") instanceof JSONArray)) {
+            summary.set("error", true);
+            return summary;
+        }
+
+        double score = 0;
+        double maxScore = 0;
+        for (Object test : (JSONArray) results.get("tests")) {
+            Object testScore = getTestField(test, "score");
+            Object testMaxScore = getTestField(test, "max_score");
+            if (testScore instanceof Number) {
+                score += ((Number) testScore).doubleValue();
+            }
+            if (testMaxScore instanceof Number) {
+                maxScore += ((Number) testMaxScore).doubleValue();
+            }
+        }
+        summary.set("score", score);
+        summary.set("max_score", maxScore);
+        return summary;
+    }
+
+    /**
+     * Reads a field of a single test result, which stages store either as
+     * Data or as a plain JSON object.
+     */
+    private static Object getTestField(Object test, String key) {
+        if (test instanceof Data) {
+            return ((Data) test).get(key);
+        }
+        if (test instanceof Map) {
+            return ((Map<?, ?>) test).get(key);
+        }
+        return null;
+    }
+
     @Override
     public String toString() {
         return String.format("%s %s", courseCode, assignment);
@@ -1,6 +1,11 @@
 package chalkbox.engines;
 
 import chalkbox.api.collections.Collection;
+import chalkbox.api.collections.Data;
+import chalkbox.api.common.ResultCache;
+import chalkbox.api.common.StageScheduler;
+import chalkbox.api.common.java.CompilationCache;
+import chalkbox.api.common.java.CompiledSolution;
 import chalkbox.java.checkstyle.Checkstyle;
 import chalkbox.java.compilation.JavaCompilation;
 import chalkbox.java.conformance.Conformance;
@@ -9,8 +14,12 @@ import chalkbox.java.functionality.Functionality;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.StringJoiner;
+import java.util.concurrent.ExecutionException;
 
 /**
  * ChalkBox engine for Java submissions.
@@ -26,6 +35,10 @@ import java.util.StringJoiner;
  */
 public class JavaEngine extends Engine implements Configuration {
 
+    /** Names of the stages that run after compilation, in default order */
+    private static final List<String> DEFAULT_STAGE_ORDER = List.of(
+            "conformance", "functionality", "junit", "checkstyle");
+
     /**
      * Path to the correct implementation.
      */
@@ -38,12 +51,67 @@ public class JavaEngine extends Engine implements Configuration {
      */
     private List<String> dependencies;
 
+    /**
+     * Path to a directory used to cache compiled byte code of the sample
+     * solution, faulty solutions and functionality tests between runs.
+     *
+     * Optional. If not set, these are compiled on every run.
+     */
+    private String buildCache;
+
+    /**
+     * Path to a directory used to cache the results of each stage between
+     * runs, so that a resubmission only reruns the stages whose input files
+     * have changed.
+     *
+     * Optional. If not set, every stage runs on every submission.
+     */
+    private String resultCache;
+
+    /**
+     * Maximum number of stages to run concurrently once the submission has
+     * been compiled. Stages are run one after the other if this is 1.
+     *
+     * Defaults to the number of available processors. Stages that run test
+     * classes concurrently default to an even share of the processors
+     * between the stages running at once.
+     */
+    private int stageThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Order in which the results of each stage appear in the output JSON.
+     *
+     * Must name every enabled stage. Defaults to conformance, functionality,
+     * junit then checkstyle.
+     */
+    private List<String> stageOrder = DEFAULT_STAGE_ORDER;
+
+    /**
+     * Whether to record how long each stage and each test takes in the
+     * output JSON, under <code>extra_data.timing</code>.
+     *
+     * Defaults to false.
+     */
+    private boolean timing = false;
+
     /* Configuration options for each stage */
     private Conformance.ConformanceOptions conformance;
     private Functionality.FunctionalityOptions functionality;
     private JUnit.JUnitOptions junit;
     private Checkstyle.CheckstyleOptions checkstyle;
 
+    /* Stages built from the configuration by prepare() */
+    private JavaCompilation compilation;
+    private Conformance conformanceStage;
+    private Functionality functionalityStage;
+    private JUnit junitStage;
+    private Checkstyle checkstyleStage;
+    private StageScheduler scheduler;
+    private ResultCache cache;
+
+    /** Whether prepare() has built every enabled stage successfully */
+    private boolean prepared = false;
+
     @Override
     public void validateConfig() throws ConfigFormatException {
         super.validateConfig();
@@ -65,52 +133,289 @@ public class JavaEngine extends Engine implements Configuration {
         if (this.checkstyle != null) {
             this.checkstyle.validateConfig();
         }
+
+        if (this.stageThreads < 0) {
+            throw new ConfigFormatException("stageThreads must not be negative");
+        }
+
+        /* Every enabled stage must appear exactly once in the stage order */
+        if (this.stageOrder == null) {
+            throw new ConfigFormatException("Missing stageOrder");
+        }
+        Set<String> ordered = new HashSet<>();
+        for (String stage : this.stageOrder) {
+            if (!DEFAULT_STAGE_ORDER.contains(stage)) {
+                throw new ConfigFormatException("Unknown stage in stageOrder: "
+                        + stage);
+            }
+            if (!ordered.add(stage)) {
+                throw new ConfigFormatException("Duplicate stage in stageOrder: "
+                        + stage);
+            }
+        }
+        if ((this.conformance != null && this.conformance.isEnabled()
+                        && !ordered.contains("conformance"))
+                || (this.functionality != null && this.functionality.isEnabled()
+                        && !ordered.contains("functionality"))
+                || (this.junit != null && this.junit.isEnabled()
+                        && !ordered.contains("junit"))
+                || (this.checkstyle != null && this.checkstyle.isEnabled()
+                        && !ordered.contains("checkstyle"))) {
+            throw new ConfigFormatException(
+                    "stageOrder must include every enabled stage");
+        }
     }
 
     @Override
     public void run() {
-        System.out.println("Running CSSE2002 engine");
+        try {
+            prepare();
+            grade();
+        } finally {
+            close();
+        }
+    }
 
-        Collection submission = super.collect();
+    /**
+     * Compiles the sample solution, faulty solutions and functionality tests
+     * used by each enabled stage.
+     *
+     * These artefacts are identical for every submission to an assignment,
+     * so they are built once and reused by each call to {@link #grade()}.
+     *
+     * @return true iff every enabled stage was built
+     */
+    @Override
+    protected boolean prepare() {
+        /* Release anything built by an earlier attempt */
+        close();
+        System.out.println("Running CSSE2002 engine");
 
         /* Convert list of dependencies to a single classpath string */
         String classPath = dependenciesToClasspath(this.dependencies);
 
-        JavaCompilation compilation = new JavaCompilation(classPath);
-        submission = compilation.compile(submission);
+        this.compilation = new JavaCompilation(classPath);
+        CompilationCache compilationCache = new CompilationCache(buildCache);
+
+        /*
+         * Describe the configuration before the stages add their compiled
+         * artefacts to it, so cached results are keyed by the configuration
+         * and the contents of the files it refers to.
+         */
+        if (this.resultCache != null) {
+            try {
+                this.cache = new ResultCache(resultCache, ResultCache.describe(
+                        Arrays.asList(correctSolution, dependencies, stageOrder,
+                                timing, conformance, functionality, junit,
+                                checkstyle)));
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+
+        /*
+         * Compile the sample solution once, to be shared by every stage that
+         * compiles or runs code against it.
+         */
+        CompiledSolution solution = null;
+        if ((this.conformance != null && this.conformance.isEnabled())
+                || (this.functionality != null && this.functionality.isEnabled())
+                || (this.junit != null && this.junit.isEnabled())) {
+            try {
+                solution = CompiledSolution.compile(correctSolution, classPath,
+                        compilationCache);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+            if (!solution.compiles()) {
+                System.err.println("Unable to compile sample solution");
+                System.err.println(solution.getOutput());
+            }
+        }
 
         if (this.conformance != null && this.conformance.isEnabled()) {
-            this.conformance.setCorrectSolution(correctSolution);
-            this.conformance.setClassPath(classPath);
+            this.conformance.setCompiledSolution(solution);
             try {
-                Conformance conformance = new Conformance(this.conformance);
-                submission = conformance.run(submission);
+                this.conformanceStage = new Conformance(this.conformance);
             } catch (IOException e) {
                 e.printStackTrace();
-                return;
+                return false;
             }
         }
 
+        /*
+         * Split the processors between the stages that run at once, so their
+         * pools of test threads do not multiply up to processors squared
+         */
+        int defaultThreads = Math.max(1, Runtime.getRuntime().availableProcessors()
+                / Math.max(1, Math.min(stageThreads, enabledStages())));
+
         if (this.functionality != null && this.functionality.isEnabled()) {
-            this.functionality.setCorrectSolution(correctSolution);
+            this.functionality.setDefaultThreads(defaultThreads);
+            this.functionality.setCompiledSolution(solution);
             this.functionality.setClassPath(classPath);
-            Functionality test = new Functionality(this.functionality);
-            submission = test.run(submission);
+            this.functionality.setCompilationCache(compilationCache);
+            this.functionality.setTiming(timing);
+            this.functionalityStage = new Functionality(this.functionality);
         }
 
         if (this.junit != null && this.junit.isEnabled()) {
-            this.junit.setCorrectSolution(correctSolution);
+            this.junit.setDefaultThreads(defaultThreads);
+            this.junit.setCompiledSolution(solution);
             this.junit.setClassPath(classPath);
-            JUnit jUnit = new JUnit(this.junit);
-            submission = jUnit.run(submission);
+            this.junit.setCompilationCache(compilationCache);
+            this.junit.setTiming(timing);
+            this.junitStage = new JUnit(this.junit);
         }
 
         if (this.checkstyle != null && this.checkstyle.isEnabled()) {
-            Checkstyle checkstyle = new Checkstyle(this.checkstyle);
-            submission = checkstyle.run(submission);
+            this.checkstyleStage = new Checkstyle(this.checkstyle);
+        }
+
+        /*
+         * The remaining stages only read the compiled submission, so they can
+         * run concurrently. Their results are merged in the configured order.
+         */
+        this.scheduler = new StageScheduler(stageThreads, timing, this.cache);
+        for (String stage : stageOrder) {
+            switch (stage) {
+                case "conformance":
+                    /* Compares every submitted file name with the expected structure */
+                    if (this.conformanceStage != null) {
+                        scheduler.add(stage, conformanceStage::run,
+                                ResultCache.ALL_FILES);
+                    }
+                    break;
+                case "functionality":
+                    /* Runs against the byte code compiled from every Java file */
+                    if (this.functionalityStage != null) {
+                        scheduler.add(stage, functionalityStage::run,
+                                ResultCache.JAVA_FILES);
+                    }
+                    break;
+                case "junit":
+                    /* Compiles submitted tests against the sample solution */
+                    if (this.junitStage != null) {
+                        scheduler.add(stage, junitStage::run,
+                                ResultCache.directory("test"));
+                    }
+                    break;
+                case "checkstyle":
+                    /*
+                     * Checks the src directory, but is skipped unless every
+                     * Java file (tests included) compiles
+                     */
+                    if (this.checkstyleStage != null) {
+                        scheduler.add(stage, checkstyleStage::run,
+                                ResultCache.JAVA_FILES);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        this.prepared = true;
+        return true;
+    }
+
+    /**
+     * Shuts down the executors and worker JVMs used by the stages.
+     */
+    @Override
+    public void close() {
+        this.prepared = false;
+        if (this.scheduler != null) {
+            this.scheduler.close();
+        }
+        if (this.functionalityStage != null) {
+            this.functionalityStage.close();
+        }
+        if (this.junitStage != null) {
+            this.junitStage.close();
+        }
+    }
+
+    /**
+     * Runs each enabled stage on the current submission and writes the
+     * results JSON file.
+     *
+     * @return results written for the submission, or null if the stages
+     * could not be prepared or a stage failed
+     */
+    @Override
+    protected Data grade() {
+        if (!this.prepared) {
+            return null;
+        }
+
+        Collection submission = super.collect();
+        long compileStart = System.nanoTime();
+        try {
+            submission = compile(submission);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        if (timing) {
+            submission.getResults().set("extra_data.timing.stages.compilation",
+                    (System.nanoTime() - compileStart) / 1_000_000d);
+        }
+
+        try {
+            submission = scheduler.run(submission);
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+            return null;
         }
 
         super.output(submission);
+        return submission.getResults();
+    }
+
+    /*
+     * Helper to compile the submission, reusing the cached compilation
+     * results if no stage that runs needs the compiled byte code, which is
+     * not cached.
+     */
+    private Collection compile(Collection submission) throws IOException {
+        if (cache == null) {
+            return compilation.compile(submission);
+        }
+
+        String key = cache.key("compilation", submission.getSource(),
+                ResultCache.JAVA_FILES);
+        if (!scheduler.willRun("conformance", submission)
+                && !scheduler.willRun("functionality", submission)
+                && cache.restore(key, submission.getResults())) {
+            return submission;
+        }
+        Data before = new Data(submission.getResults());
+        submission = compilation.compile(submission);
+        cache.store(key, before, submission.getResults());
+        return submission;
+    }
+
+    /*
+     * Helper to count the stages that are enabled.
+     */
+    private int enabledStages() {
+        int count = 0;
+        if (this.conformance != null && this.conformance.isEnabled()) {
+            count++;
+        }
+        if (this.functionality != null && this.functionality.isEnabled()) {
+            count++;
+        }
+        if (this.junit != null && this.junit.isEnabled()) {
+            count++;
+        }
+        if (this.checkstyle != null && this.checkstyle.isEnabled()) {
+            count++;
+        }
+        return count;
     }
 
     /**
@@ -147,6 +452,30 @@ public class JavaEngine extends Engine implements Configuration {
         this.dependencies = dependencies;
     }
 
+    public boolean isTiming() {
+        return timing;
+    }
+
+    public void setTiming(boolean timing) {
+        this.timing = timing;
+    }
+
+    public String getBuildCache() {
+        return buildCache;
+    }
+
+    public void setBuildCache(String buildCache) {
+        this.buildCache = buildCache;
+    }
+
+    public String getResultCache() {
+        return resultCache;
+    }
+
+    public void setResultCache(String resultCache) {
+        this.resultCache = resultCache;
+    }
+
     public Conformance.ConformanceOptions getConformance() {
         return conformance;
     }
@@ -171,6 +500,22 @@ public class JavaEngine extends Engine implements Configuration {
         this.junit = junit;
     }
 
+    public int getStageThreads() {
+        return stageThreads;
+    }
+
+    public void setStageThreads(int stageThreads) {
+        this.stageThreads = stageThreads;
+    }
+
+    public List<String> getStageOrder() {
+        return stageOrder;
+    }
+
+    public void setStageOrder(List<String> stageOrder) {
+        this.stageOrder = stageOrder;
+    }
+
     public Checkstyle.CheckstyleOptions getCheckstyle() {
         return this.checkstyle;
     }
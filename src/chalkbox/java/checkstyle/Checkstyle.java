@@ -6,6 +6,7 @@ import chalkbox.api.common.Execution;
 import chalkbox.api.common.ProcessExecution;
 import chalkbox.engines.ConfigFormatException;
 import chalkbox.engines.Configuration;
+import chalkbox.java.compilation.JavaCompilation;
 import org.json.simple.JSONArray;
 
 import java.io.IOException;
@@ -137,7 +138,7 @@ public class Checkstyle {
         result.set("name", "Automated Style");
 
         // if submission didn't compile, give 0 marks for automated style
-        if (!feedback.is("extra_data.compilation.compiles")) {
+        if (!feedback.is(JavaCompilation.COMPILES)) {
             result.set("score", 0);
             result.set("max_score", options.weighting);
             result.set("output", "Submission did not compile, not checking automated style");
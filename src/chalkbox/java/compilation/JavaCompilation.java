@@ -1,14 +1,15 @@
 package chalkbox.java.compilation;
 
-import chalkbox.api.collections.Bundle;
 import chalkbox.api.collections.Collection;
 import chalkbox.api.collections.Data;
+import chalkbox.api.collections.DataPath;
 import chalkbox.api.common.java.Compiler;
 import org.json.simple.JSONArray;
 
 import javax.tools.JavaFileObject;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.util.Map;
 
 /**
  * Process to compile all of the .java source files in a submission.
@@ -50,6 +51,9 @@ public class JavaCompilation {
     /** Message shown in output when submission does not compile */
     private static final String SUCCESS_MSG = "Submission successfully compiled";
 
+    /** Whether the submission compiled, read by the stages which need it */
+    public static final DataPath COMPILES = DataPath.of("extra_data.compilation.compiles");
+
     /** Class path to use to compile submissions */
     private String classPath;
 
@@ -66,15 +70,15 @@ public class JavaCompilation {
     /**
      * Attempts to compile the given submission.
      *
-     * Outputs the compiled byte code to a "bin/" directory inside the
-     * submission directory if successful, and creates a non-weighted test in
-     * the results JSON containing the result of the compilation attempt.
+     * Keeps the compiled byte code in memory (see
+     * {@link Collection#getClasses()}) if successful, and creates a
+     * non-weighted test in the results JSON containing the result of the
+     * compilation attempt.
      *
      * @param submission submission containing files to compile
-     * @return submission, with compiled code in a "bin/" directory
+     * @return submission, with its compiled byte code
      */
     public Collection compile(Collection submission) {
-        Bundle working = submission.getWorking();
         Data results = submission.getResults();
 
         /* Create a visible test result for compilation status and output */
@@ -84,15 +88,7 @@ public class JavaCompilation {
         compilationResult.set("output", "");
         testResults.add(compilationResult);
 
-        results.set("extra_data.compilation.compiles", false);
-
-        /* Attempt to create a new output directory */
-        if (!working.makeDir("bin")) {
-            System.err.println("Couldn't create output directory");
-            compilationResult.set("output", FAILURE_MSG
-                    + "\nCouldn't create output directory - see tutor");
-            return submission;
-        }
+        results.set(COMPILES, false);
 
         Iterable<? extends JavaFileObject> sourceFiles = Compiler.getSourceFiles(
                 submission.getSource());
@@ -107,17 +103,18 @@ public class JavaCompilation {
         String classPath = submission.getSource().getUnmaskedPath()
                 + System.getProperty("path.separator") + this.classPath;
 
-        boolean success = Compiler.compile(sourceFiles, classPath,
-                working.getUnmaskedPath("bin"), output);
+        Map<String, byte[]> classes = Compiler.compileInMemory(sourceFiles,
+                classPath, output);
+        boolean success = classes != null;
 
-        results.set("extra_data.compilation.compiles", success);
+        results.set(COMPILES, success);
         if (success) {
+            submission.setClasses(classes);
             compilationResult.set("output", SUCCESS_MSG + "\n" + output.toString());
         } else {
             compilationResult.set("output", FAILURE_MSG + "\n" + output.toString());
         }
 
-        working.refresh();
         return submission;
     }
 }
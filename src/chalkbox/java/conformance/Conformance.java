@@ -1,19 +1,18 @@
 package chalkbox.java.conformance;
 
-import chalkbox.api.collections.Bundle;
 import chalkbox.api.collections.Collection;
 import chalkbox.api.collections.Data;
-import chalkbox.api.common.java.Compiler;
+import chalkbox.api.collections.Text;
+import chalkbox.api.common.java.CompiledSolution;
 import chalkbox.api.files.FileLoader;
 import chalkbox.engines.ConfigFormatException;
 import chalkbox.engines.Configuration;
+import chalkbox.java.compilation.JavaCompilation;
 import chalkbox.java.conformance.comparator.ClassComparator;
 import chalkbox.java.conformance.comparator.CodeComparator;
 import org.json.simple.JSONArray;
 
-import java.io.File;
 import java.io.IOException;
-import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -36,19 +35,12 @@ public class Conformance {
         private boolean enabled = false;
 
         /**
-         * Path of the correct solution to the assignment.
+         * Compiled correct solution to the assignment.
          *
-         * Will be compiled into class files which are checked member-for-member
-         * against classes in the the provided submission.
+         * Classes are checked member-for-member against classes in the
+         * provided submission.
          */
-        private String correctSolution;
-
-        /**
-         * Class path to use when compiling the sample solution.
-         *
-         * Any dependencies should be added here, e.g. JUnit.
-         */
-        private String classPath;
+        private CompiledSolution compiledSolution;
 
         /**
          * Path of the directory to compare against the provided submission.
@@ -84,8 +76,7 @@ public class Conformance {
             }
 
             /*
-             * Do not need classPath or correctSolution immediately - these are
-             * set later.
+             * Do not need compiledSolution immediately - this is set later.
              */
 
             /* Must have expected structure */
@@ -119,20 +110,12 @@ public class Conformance {
             this.violationPenalty = violationPenalty;
         }
 
-        public String getCorrectSolution() {
-            return correctSolution;
+        public CompiledSolution getCompiledSolution() {
+            return compiledSolution;
         }
 
-        public void setCorrectSolution(String correctSolution) {
-            this.correctSolution = correctSolution;
-        }
-
-        public String getClassPath() {
-            return classPath;
-        }
-
-        public void setClassPath(String classPath) {
-            this.classPath = classPath;
+        public void setCompiledSolution(CompiledSolution compiledSolution) {
+            this.compiledSolution = compiledSolution;
         }
 
         public int getWeighting() {
@@ -181,7 +164,7 @@ public class Conformance {
         /* Load a list of all files expected to be found in a submission */
         this.expectedFiles = FileLoader.loadFiles(options.expectedStructure);
 
-        /* Compile and store the Java classes from the expected structure */
+        /* Load and store the Java classes from the expected structure */
         loadExpected();
     }
 
@@ -189,23 +172,8 @@ public class Conformance {
      * Loads the expected class files into the conformance checker
      */
     private void loadExpected() throws IOException {
-        Bundle expected = new Bundle(new File(options.correctSolution));
-        StringWriter output = new StringWriter();
-
-        /* Load output directories for the solution and the tests */
-        Bundle out;
-        try {
-            out = new Bundle();
-        } catch (IOException e) {
-            e.printStackTrace();
-            return;
-        }
-
-        /* Compile the sample solution */
-        Compiler.compile(Compiler.getSourceFiles(expected), options.classPath,
-                out.getUnmaskedPath(), output);
-
-        SourceLoader expectedLoader = new SourceLoader(out.getUnmaskedPath());
+        SourceLoader expectedLoader = new SourceLoader(
+                options.compiledSolution.getOutputPath());
         try {
             expectedClasses = expectedLoader.getClassMap();
         } catch (ClassNotFoundException cnf) {
@@ -230,7 +198,7 @@ public class Conformance {
         JSONArray tests = (JSONArray) data.get("tests");
         Data result = new Data(); // test result representing conformance check
         result.set("name", "Conformance");
-        result.set("output", "");
+        Text output = result.text("output");
         result.set("score", 0);
         result.set("max_score", options.weighting);
         tests.add(result);
@@ -251,37 +219,34 @@ public class Conformance {
         Collections.sort(missing);
         Collections.sort(extra);
 
-        result.set("output", result.get("output") + "-------- Missing files --------\n\n");
+        output.append("-------- Missing files --------\n\n");
         if (missing.isEmpty()) {
-            result.set("output", result.get("output") + "No missing files\n\n");
+            output.append("No missing files\n\n");
         } else {
-            result.set("output", result.get("output") + String.join("\n\n", missing) + "\n\n");
+            output.append(String.join("\n\n", missing)).append("\n\n");
         }
 
-        result.set("output", result.get("output") + "-------- Extra files --------\n\n");
+        output.append("-------- Extra files --------\n\n");
         if (extra.isEmpty()) {
-            result.set("output", result.get("output") + "No extra files\n\n");
+            output.append("No extra files\n\n");
         } else {
-            result.set("output", result.get("output") + String.join("\n\n", extra) + "\n\n");
+            output.append(String.join("\n\n", extra)).append("\n\n");
         }
 
         // Only check classes for conformance if the submission compiles
-        if (!data.is("extra_data.compilation.compiles")) {
-            result.set("output", result.get("output")
-                    + "Submission did not compile, not checking for conformance");
+        if (!data.is(JavaCompilation.COMPILES)) {
+            output.append("Submission did not compile, not checking for conformance");
             return submission;
         }
 
-        result.set("output", result.get("output") + "-------- Class conformance --------\n\n");
+        output.append("-------- Class conformance --------\n\n");
 
-        SourceLoader submissionLoader = new SourceLoader(submission.getWorking()
-                .getUnmaskedPath("bin"));
+        SourceLoader submissionLoader = new SourceLoader(submission.getClasses());
         Map<String, Class> submissionMap;
         try {
             submissionMap = submissionLoader.getClassMap();
         } catch (ClassNotFoundException|NoClassDefFoundError cnf) {
-            result.set("output", result.get("output")
-                    + "Unable to find a class in submission\n");
+            output.append("Unable to find a class in submission\n");
             cnf.printStackTrace();
             return submission;
         }
@@ -297,8 +262,8 @@ public class Conformance {
             Class actualClass = submissionMap.get(className);
 
             if (expectedClass == null || actualClass == null) {
-                result.set("output", result.get("output") + className
-                        + " was not found (unable to load class)\n\n");
+                output.append(className)
+                        .append(" was not found (unable to load class)\n\n");
                 totalDifferences += 1; // 1-difference penalty for class not found
                 continue;
             }
@@ -307,13 +272,12 @@ public class Conformance {
                     actualClass);
             if (comparator.hasDifference()) {
                 // Class does not conform
-                result.set("output", result.get("output") + className
-                        + " does not conform:\n" + comparator.toString());
+                output.append(className).append(" does not conform:\n")
+                        .append(comparator);
                 totalDifferences += comparator.getDifferenceCount();
             } else {
                 // Class conforms
-                result.set("output", result.get("output") + className
-                        + " conforms\n\n");
+                output.append(className).append(" conforms\n\n");
             }
         }
 
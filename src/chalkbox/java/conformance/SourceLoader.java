@@ -8,9 +8,14 @@ import java.nio.file.Files;
 import java.util.*;
 
 public class SourceLoader extends ClassLoader {
-    private File classDirectory;
+    private Map<String, byte[]> classData;
     private List<String> files;
 
+    public SourceLoader(Map<String, byte[]> classData) {
+        this.classData = classData;
+        this.files = new ArrayList<>(classData.keySet());
+    }
+
     public SourceLoader(String classDirectory) throws IOException {
         File file = new File(classDirectory);
 
@@ -21,10 +26,13 @@ public class SourceLoader extends ClassLoader {
         FileLoader loader = new FileLoader(file.getPath(), "", ".class");
         loader.setRemoveSuffix(true);
 
-        this.classDirectory = file;
+        this.classData = new TreeMap<>();
         this.files = new ArrayList<>();
         for (String fileName : loader.loadFiles(file)) {
-            this.files.add(fileName.replace("/", "."));
+            String className = fileName.replace("/", ".");
+            this.files.add(className);
+            this.classData.put(className, Files.readAllBytes(
+                    getFile(file, className).toPath()));
         }
     }
 
@@ -46,7 +54,7 @@ public class SourceLoader extends ClassLoader {
         return classes;
     }
 
-    private File getFile(String className) {
+    private static File getFile(File classDirectory, String className) {
         return new File(classDirectory.getPath() + File.separator
                 + className.replace(".", File.separator) + ".class");
     }
@@ -55,20 +63,11 @@ public class SourceLoader extends ClassLoader {
     public Class loadClass(String name) throws ClassNotFoundException {
         Class<?> loadedClass = findLoadedClass(name);
 
-        if (loadedClass != null || !files.contains(name)) {
+        if (loadedClass != null || !classData.containsKey(name)) {
             return super.loadClass(name);
         }
 
-        try {
-            byte[] classData = Files.readAllBytes(getFile(name).toPath());
-
-            return defineClass(name,
-                    classData, 0, classData.length);
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return null;
+        byte[] bytes = classData.get(name);
+        return defineClass(name, bytes, 0, bytes.length);
     }
 }
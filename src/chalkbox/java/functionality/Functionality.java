@@ -3,8 +3,11 @@ package chalkbox.java.functionality;
 import chalkbox.api.collections.Bundle;
 import chalkbox.api.collections.Collection;
 import chalkbox.api.collections.Data;
-import chalkbox.api.common.java.Compiler;
+import chalkbox.api.common.java.CompilationCache;
+import chalkbox.api.common.java.CompiledSolution;
 import chalkbox.api.common.java.JUnitRunner;
+import chalkbox.api.common.java.TestBudget;
+import chalkbox.api.common.java.TestResult;
 import chalkbox.engines.ConfigFormatException;
 import chalkbox.engines.Configuration;
 import chalkbox.java.compilation.JavaCompilation;
@@ -13,8 +16,15 @@ import org.json.simple.JSONArray;
 import java.io.File;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * Process to execute JUnit tests on each submission.
@@ -29,18 +39,45 @@ public class Functionality {
         /** Whether or not to run this stage */
         private boolean enabled = false;
 
-        /** Sample solution to compile tests with */
-        private String correctSolution;
+        /** Compiled sample solution to compile tests with */
+        private CompiledSolution compiledSolution;
 
         /** Class path for tests to be compiled with */
         private String classPath;
 
+        /** Cache to compile the tests through */
+        private CompilationCache compilationCache = new CompilationCache();
+
         /** Number of marks allocated to the functionality stage */
         private int weighting;
 
         /** Path of JUnit test files */
         private String testDirectory;
 
+        /** Whether to include the time taken by each test in its result */
+        private boolean timing = false;
+
+        /** Maximum number of test classes to run at once, or 0 for the default */
+        private int runThreads = 0;
+
+        /**
+         * Number of threads to run test classes on if runThreads is 0, set by
+         * the engine to its share of the available processors
+         */
+        private int defaultThreads = Runtime.getRuntime().availableProcessors();
+
+        /** Wall-clock milliseconds each test may run for, or 0 for no limit */
+        private long testTimeLimit = 0;
+
+        /** CPU milliseconds each test may use, or 0 for no limit */
+        private long testCpuTimeLimit = 0;
+
+        /** Wall-clock milliseconds each test class may run for, or 0 for no limit */
+        private long classTimeLimit = 0;
+
+        /** Maximum number of characters of failure output kept for each test, or 0 for no limit */
+        private int outputLimit = 0;
+
         /**
          * Checks this configuration and throws an exception if it is invalid.
          *
@@ -63,6 +100,21 @@ public class Functionality {
                 throw new ConfigFormatException(
                         "Functionality weighting must be between 0 and 100");
             }
+
+            if (runThreads < 0) {
+                throw new ConfigFormatException(
+                        "Functionality runThreads must not be negative");
+            }
+
+            if (testTimeLimit < 0 || testCpuTimeLimit < 0 || classTimeLimit < 0) {
+                throw new ConfigFormatException(
+                        "Functionality time limits must not be negative");
+            }
+
+            if (outputLimit < 0) {
+                throw new ConfigFormatException(
+                        "Functionality outputLimit must not be negative");
+            }
         }
 
         //<editor-fold desc="JavaBeans getters/setters">
@@ -83,12 +135,68 @@ public class Functionality {
             this.testDirectory = testDirectory;
         }
 
-        public String getCorrectSolution() {
-            return correctSolution;
+        public boolean isTiming() {
+            return timing;
+        }
+
+        public void setTiming(boolean timing) {
+            this.timing = timing;
+        }
+
+        public int getRunThreads() {
+            return runThreads;
+        }
+
+        public void setRunThreads(int runThreads) {
+            this.runThreads = runThreads;
+        }
+
+        public int getDefaultThreads() {
+            return defaultThreads;
+        }
+
+        public void setDefaultThreads(int defaultThreads) {
+            this.defaultThreads = defaultThreads;
+        }
+
+        public long getTestTimeLimit() {
+            return testTimeLimit;
+        }
+
+        public void setTestTimeLimit(long testTimeLimit) {
+            this.testTimeLimit = testTimeLimit;
+        }
+
+        public long getTestCpuTimeLimit() {
+            return testCpuTimeLimit;
         }
 
-        public void setCorrectSolution(String correctSolution) {
-            this.correctSolution = correctSolution;
+        public void setTestCpuTimeLimit(long testCpuTimeLimit) {
+            this.testCpuTimeLimit = testCpuTimeLimit;
+        }
+
+        public long getClassTimeLimit() {
+            return classTimeLimit;
+        }
+
+        public void setClassTimeLimit(long classTimeLimit) {
+            this.classTimeLimit = classTimeLimit;
+        }
+
+        public int getOutputLimit() {
+            return outputLimit;
+        }
+
+        public void setOutputLimit(int outputLimit) {
+            this.outputLimit = outputLimit;
+        }
+
+        public CompiledSolution getCompiledSolution() {
+            return compiledSolution;
+        }
+
+        public void setCompiledSolution(CompiledSolution compiledSolution) {
+            this.compiledSolution = compiledSolution;
         }
 
         public String getClassPath() {
@@ -99,6 +207,14 @@ public class Functionality {
             this.classPath = classPath;
         }
 
+        public CompilationCache getCompilationCache() {
+            return compilationCache;
+        }
+
+        public void setCompilationCache(CompilationCache compilationCache) {
+            this.compilationCache = compilationCache;
+        }
+
         public boolean isEnabled() {
             return enabled;
         }
@@ -119,6 +235,9 @@ public class Functionality {
     /** Whether there were issues compiling the sample solution or tests */
     private boolean hasErrors;
 
+    /** Executor to run test classes on, or null to run them sequentially */
+    private ExecutorService executor;
+
     /**
      * Sets up the functionality stage ready to process a submission.
      *
@@ -127,46 +246,41 @@ public class Functionality {
      */
     public Functionality(FunctionalityOptions options) {
         this.options = options;
+        int runThreads = options.runThreads > 0 ? options.runThreads
+                : options.defaultThreads;
+        if (runThreads > 1) {
+            this.executor = Executors.newFixedThreadPool(runThreads,
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "chalkbox-functionality");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
 
         this.compileTests();
     }
 
     /**
-     * Compile the sample solution and then compile the tests with the sample
-     * solution.
+     * Compile the tests with the compiled sample solution.
      */
     public void compileTests() {
         tests = new Bundle(new File(options.testDirectory));
-        Bundle solution = new Bundle(new File(options.correctSolution));
 
-        /* Load output directories for the solution and the tests */
-        Bundle solutionOutput;
-        Bundle testOutput;
+        StringWriter output = new StringWriter();
         try {
-            solutionOutput = new Bundle();
-            testOutput = new Bundle();
+            /* Compile the tests with the sample solution */
+            CompilationCache.Entry testOutput = options.compilationCache
+                    .compile(tests, options.compiledSolution.getClassPath(),
+                            output);
+
             /* Add the tests to the class path for execution */
             options.setClassPath(options.classPath
                     + System.getProperty("path.separator")
-                    + testOutput.getUnmaskedPath());
+                    + testOutput.getOutputPath());
         } catch (IOException e) {
             hasErrors = true;
             e.printStackTrace();
-            return;
         }
-
-        StringWriter output = new StringWriter();
-
-        /* Compile the sample solution */
-        Compiler.compile(Compiler.getSourceFiles(solution), options.classPath,
-                solutionOutput.getUnmaskedPath(), output);
-
-        /* Compile the tests with the sample solution */
-        Compiler.compile(Compiler.getSourceFiles(tests),
-                options.classPath
-                        + System.getProperty("path.separator")
-                        + solutionOutput.getUnmaskedPath(),
-                testOutput.getUnmaskedPath(), output);
     }
 
     /**
@@ -187,7 +301,7 @@ public class Functionality {
         if (hasErrors) {
             return submission;
         }
-        if (!submission.getResults().is("extra_data.compilation.compiles")) {
+        if (!submission.getResults().is(JavaCompilation.COMPILES)) {
             return submission;
         }
 
@@ -202,22 +316,46 @@ public class Functionality {
         }
         */
 
-        /* Class path contains dependencies and the compiled submission */
-        String classPath = options.classPath
-                + System.getProperty("path.separator")
-                + submission.getWorking().getUnmaskedPath("bin");
+        TestBudget budget = new TestBudget(options.testTimeLimit,
+                options.testCpuTimeLimit, options.classTimeLimit);
         JSONArray testResults = (JSONArray) submission.getResults().get("tests");
         int totalNumTests = 0;
-        JSONArray functionalityResults = new JSONArray();
+        List<TestResult> functionalityResults = new ArrayList<>();
+        /*
+         * Start every test class up front, each in its own class loader, then
+         * collect the results in class order so the output is the same as
+         * running the classes one after the other.
+         */
+        List<Future<List<TestResult>>> classResults = new ArrayList<>();
         for (String className : tests.getClasses("")) {
-            List<Data> results = JUnitRunner.runTests(className, classPath);
+            /* Compiled submission is loaded from memory after the class path */
+            Callable<List<TestResult>> run = () -> JUnitRunner.runTests(className,
+                    options.classPath, submission.getClasses(), budget,
+                    options.outputLimit);
+            if (executor == null) {
+                FutureTask<List<TestResult>> task = new FutureTask<>(run);
+                task.run();
+                classResults.add(task);
+            } else {
+                classResults.add(executor.submit(run));
+            }
+        }
+        for (Future<List<TestResult>> classResult : classResults) {
+            List<TestResult> results;
+            try {
+                results = classResult.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while running tests", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Unable to run tests", e.getCause());
+            }
             /* Sort alphabetically by test class then test name */
-            results.sort(Comparator.comparing(o -> ((String) o.get("name"))));
+            results.sort(Comparator.comparing(TestResult::getName));
 
-            for (Data result : results) {
-                int testMultiplier = (Integer) result.get("weighting");
+            for (TestResult result : results) {
                 /* e.g. a test worth 5 "units" will increase the total number of tests by 5 */
-                totalNumTests += testMultiplier;
+                totalNumTests += result.getWeighting();
                 functionalityResults.add(result);
             }
         }
@@ -228,15 +366,25 @@ public class Functionality {
         /* Mark awarded for passing a single test method (un-scaled by test multipliers) */
         final double individualTestWeighting = 1d / totalNumTests * options.weighting;
 
-        for (Object o : functionalityResults) {
-            Data functionalityResult = (Data) o;
-            boolean didPass = (Integer) functionalityResult.get("extra_data.passes") == 1;
-            int testMultiplier = (Integer) functionalityResult.get("weighting");
-            functionalityResult.set("score", didPass ? individualTestWeighting * testMultiplier : 0);
+        for (TestResult result : functionalityResults) {
+            int testMultiplier = result.getWeighting();
+            Data functionalityResult = result.toData(options.timing);
+            functionalityResult.set("score",
+                    result.isPassed() ? individualTestWeighting * testMultiplier : 0);
             functionalityResult.set("max_score", individualTestWeighting * testMultiplier);
             testResults.add(functionalityResult);
         }
 
         return submission;
     }
+
+    /**
+     * Shuts down the executor used to run test classes. The stage should
+     * not be run once closed.
+     */
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
 }
@@ -3,8 +3,16 @@ package chalkbox.java.junit;
 import chalkbox.api.collections.Bundle;
 import chalkbox.api.collections.Collection;
 import chalkbox.api.collections.Data;
+import chalkbox.api.collections.DataPath;
+import chalkbox.api.common.java.CompilationCache;
+import chalkbox.api.common.java.CompiledSolution;
 import chalkbox.api.common.java.Compiler;
 import chalkbox.api.common.java.JUnitRunner;
+import chalkbox.api.common.java.MemoryClassLoader;
+import chalkbox.api.common.java.TestClassLoaders;
+import chalkbox.api.common.java.TestClassResult;
+import chalkbox.api.common.java.WorkerPool;
+import chalkbox.api.common.java.coverage.Coverage;
 import chalkbox.api.files.FileLoader;
 import chalkbox.api.files.SourceFile;
 import chalkbox.engines.ConfigFormatException;
@@ -17,6 +25,16 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Logger;
 import java.util.stream.IntStream;
@@ -35,15 +53,20 @@ public class JUnit {
         private boolean enabled = false;
 
         /**
-         * Path to a directory containing the sample solution
+         * Compiled sample solution
          */
-        private String correctSolution;
+        private CompiledSolution compiledSolution;
 
         /**
          * Class path for student tests to be compiled with
          */
         private String classPath;
 
+        /**
+         * Cache to compile the faulty solutions through
+         */
+        private CompilationCache compilationCache = new CompilationCache();
+
         /**
          * Marks allocated to the JUnit stage
          */
@@ -59,6 +82,77 @@ public class JUnit {
          */
         private List<String> assessableTestClasses;
 
+        /**
+         * Whether to stop running tests against a faulty solution as soon as
+         * a test that passed against the correct solution fails
+         */
+        private boolean earlyExit = false;
+
+        /**
+         * Whether to skip running a test class against a faulty solution if
+         * the test class never loads any class the faulty solution changes
+         */
+        private boolean coverageSkip = false;
+
+        /**
+         * Whether to report the line and branch coverage of the correct
+         * solution by the submitted tests
+         */
+        private boolean coverage = false;
+
+        /**
+         * Whether to include the time taken by the tests in each result
+         */
+        private boolean timing = false;
+
+        /**
+         * Maximum number of faulty solutions to compile at once. Solutions
+         * are compiled before any submission is graded, so this is not
+         * shared with other stages.
+         */
+        private int compileThreads = Runtime.getRuntime().availableProcessors();
+
+        /**
+         * Maximum number of test classes to run against solutions at once,
+         * or 0 for the default number of threads
+         */
+        private int runThreads = 0;
+
+        /**
+         * Number of threads to run test classes on if runThreads is 0. The
+         * engine sets this to a share of the available processors, so stages
+         * running at once do not each use every processor.
+         */
+        private int defaultThreads = Runtime.getRuntime().availableProcessors();
+
+        /**
+         * Milliseconds a test class may run against a single solution before
+         * it is abandoned, or 0 for no limit
+         */
+        private long testTimeout = 0;
+
+        /**
+         * Maximum number of characters of failure output kept for each test,
+         * or 0 for no limit
+         */
+        private int outputLimit = 0;
+
+        /**
+         * Number of worker JVMs to run submitted tests in, or 0 to run them
+         * inside the grader
+         */
+        private int workers = 0;
+
+        /**
+         * Number of test classes a worker JVM runs before it is replaced
+         */
+        private int workerJobs = 100;
+
+        /**
+         * Extra arguments to start worker JVMs with, e.g. -Xmx256m
+         */
+        private List<String> workerArgs = new ArrayList<>();
+
         /**
          * Checks this configuration and throws an exception if it is invalid.
          *
@@ -88,16 +182,46 @@ public class JUnit {
                 throw new ConfigFormatException(
                         "JUnit weighting must be between 0 and 100");
             }
+
+            if (compileThreads < 1) {
+                throw new ConfigFormatException(
+                        "JUnit compileThreads must be at least 1");
+            }
+
+            if (runThreads < 0) {
+                throw new ConfigFormatException(
+                        "JUnit runThreads must not be negative");
+            }
+
+            if (testTimeout < 0) {
+                throw new ConfigFormatException(
+                        "JUnit testTimeout must not be negative");
+            }
+
+            if (outputLimit < 0) {
+                throw new ConfigFormatException(
+                        "JUnit outputLimit must not be negative");
+            }
+
+            if (workers < 0) {
+                throw new ConfigFormatException(
+                        "JUnit workers must not be negative");
+            }
+
+            if (workerJobs < 1) {
+                throw new ConfigFormatException(
+                        "JUnit workerJobs must be at least 1");
+            }
         }
 
         //<editor-fold desc="JavaBeans getters/setters">
 
-        public String getCorrectSolution() {
-            return correctSolution;
+        public CompiledSolution getCompiledSolution() {
+            return compiledSolution;
         }
 
-        public void setCorrectSolution(String correctSolution) {
-            this.correctSolution = correctSolution;
+        public void setCompiledSolution(CompiledSolution compiledSolution) {
+            this.compiledSolution = compiledSolution;
         }
 
         public String getClassPath() {
@@ -108,6 +232,14 @@ public class JUnit {
             this.classPath = classPath;
         }
 
+        public CompilationCache getCompilationCache() {
+            return compilationCache;
+        }
+
+        public void setCompilationCache(CompilationCache compilationCache) {
+            this.compilationCache = compilationCache;
+        }
+
         public int getWeighting() {
             return weighting;
         }
@@ -132,6 +264,102 @@ public class JUnit {
             this.assessableTestClasses = assessableTestClasses;
         }
 
+        public boolean isEarlyExit() {
+            return earlyExit;
+        }
+
+        public void setEarlyExit(boolean earlyExit) {
+            this.earlyExit = earlyExit;
+        }
+
+        public boolean isCoverageSkip() {
+            return coverageSkip;
+        }
+
+        public void setCoverageSkip(boolean coverageSkip) {
+            this.coverageSkip = coverageSkip;
+        }
+
+        public boolean isCoverage() {
+            return coverage;
+        }
+
+        public void setCoverage(boolean coverage) {
+            this.coverage = coverage;
+        }
+
+        public boolean isTiming() {
+            return timing;
+        }
+
+        public void setTiming(boolean timing) {
+            this.timing = timing;
+        }
+
+        public int getCompileThreads() {
+            return compileThreads;
+        }
+
+        public void setCompileThreads(int compileThreads) {
+            this.compileThreads = compileThreads;
+        }
+
+        public int getRunThreads() {
+            return runThreads;
+        }
+
+        public void setRunThreads(int runThreads) {
+            this.runThreads = runThreads;
+        }
+
+        public int getDefaultThreads() {
+            return defaultThreads;
+        }
+
+        public void setDefaultThreads(int defaultThreads) {
+            this.defaultThreads = defaultThreads;
+        }
+
+        public long getTestTimeout() {
+            return testTimeout;
+        }
+
+        public void setTestTimeout(long testTimeout) {
+            this.testTimeout = testTimeout;
+        }
+
+        public int getOutputLimit() {
+            return outputLimit;
+        }
+
+        public void setOutputLimit(int outputLimit) {
+            this.outputLimit = outputLimit;
+        }
+
+        public int getWorkers() {
+            return workers;
+        }
+
+        public void setWorkers(int workers) {
+            this.workers = workers;
+        }
+
+        public int getWorkerJobs() {
+            return workerJobs;
+        }
+
+        public void setWorkerJobs(int workerJobs) {
+            this.workerJobs = workerJobs;
+        }
+
+        public List<String> getWorkerArgs() {
+            return workerArgs;
+        }
+
+        public void setWorkerArgs(List<String> workerArgs) {
+            this.workerArgs = workerArgs;
+        }
+
         public boolean isEnabled() {
             return enabled;
         }
@@ -146,14 +374,16 @@ public class JUnit {
     /** Logger */
     private static final Logger LOGGER = Logger.getLogger(JUnit.class.getName());
 
-    /** Configuration options */
-    private JUnitOptions options;
+    /** Whether at least one submitted test class compiled */
+    private static final DataPath COMPILES = DataPath.of("extra_data.junit.compiles");
 
-    /** Bundle containing compiled faulty implementations */
-    private Bundle solutionsOutput;
+    /* Total time taken by the test classes run against a solution */
+    private static final DataPath CLASS_LOAD_MS = DataPath.of("extra_data.timing.class_load_ms");
+    private static final DataPath CLASS_MS = DataPath.of("extra_data.timing.class_ms");
+    private static final DataPath TESTS_MS = DataPath.of("extra_data.timing.tests_ms");
 
-    /** Bundle containing compiled correct solution */
-    private Bundle solutionOutput;
+    /** Configuration options */
+    private JUnitOptions options;
 
     /** Class path containing dependencies and correct solution byte code */
     private String solutionClassPath;
@@ -167,6 +397,28 @@ public class JUnit {
      */
     private int numFaultySolutions;
 
+    /** Top level classes of the correct solution, if coverage skipping */
+    private Set<String> solutionClasses;
+
+    /**
+     * Mapping of faulty implementation names to the top level classes whose
+     * source differs from the correct solution, if coverage skipping
+     */
+    private Map<String, Set<String>> changedClasses = new HashMap<>();
+
+    /**
+     * Whether the "solution" faulty implementation has exactly the same
+     * source as the correct solution, so its results are those of the
+     * baseline run against the correct solution
+     */
+    private boolean solutionIsBaseline = false;
+
+    /** Executor to run test classes on, or null to run them sequentially */
+    private ExecutorService executor;
+
+    /** Worker JVMs to run test classes in, or null to run them in the grader */
+    private WorkerPool workerPool;
+
     /**
      * Sets up the JUnit stage ready to process a submission.
      *
@@ -174,70 +426,58 @@ public class JUnit {
      */
     public JUnit(JUnitOptions options) {
         this.options = options;
-
-        createCompilationOutput();
-        compileSolution();
-        compileSolutions();
-    }
-
-    /**
-     * Creates the compilation output directory.
-     */
-    private void createCompilationOutput() {
-        /* Create a new temporary directory for compilation output */
-        Bundle compilationOutput;
-        try {
-            compilationOutput = new Bundle();
-        } catch (IOException e) {
-            LOGGER.severe("Unable to create compilation output directory");
-            return;
+        this.solutionClassPath = options.compiledSolution.getClassPath();
+        int runThreads = options.runThreads > 0 ? options.runThreads
+                : options.defaultThreads;
+        if (runThreads > 1) {
+            this.executor = Executors.newFixedThreadPool(runThreads,
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "chalkbox-junit");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
         }
-
-        /* Create a subdirectory for broken solutions compilation */
-        try {
-            solutionsOutput = compilationOutput.makeBundle("solutions");
-        } catch (IOException e) {
-            LOGGER.severe("Unable to create solutions directory in compilation output directory");
-            return;
+        if (options.workers > 0) {
+            try {
+                this.workerPool = new WorkerPool(options.workers,
+                        options.workerJobs, options.workerArgs);
+            } catch (IOException e) {
+                LOGGER.severe("Unable to start test workers, running tests in the grader");
+                e.printStackTrace();
+            }
         }
 
-        /* Create a subdirectory for sample solution compilation */
-        try {
-            solutionOutput = compilationOutput.makeBundle("solution");
-        } catch (IOException e) {
-            LOGGER.severe("Unable to create solution directory in compilation output directory");
-        }
+        compileSolutions();
     }
 
     /**
-     * Compiles a single implementation and outputs the compiled byte code to
-     * the given location.
+     * Compiles a single implementation.
      *
      * @param source bundle containing source files to compile
      * @param name human readable name of the implementation to be compiled
-     * @param output path to directory that will store compiled byte code
      * @param writer writer to write compile warnings/output to
+     * @return path to directory that stores the compiled byte code, or null
+     * if the output directory could not be created
      */
-    private void compileSolution(Bundle source, String name, String output,
-                                 StringWriter writer) {
-        /* Collect all the source files to compile */
-        SourceFile[] files;
+    private String compileSolution(Bundle source, String name,
+                                   StringWriter writer) {
+        /* Compile the solution */
+        CompilationCache.Entry compiled;
         try {
-            files = source.getFiles(".java");
+            compiled = options.compilationCache.compile(source,
+                    options.classPath, writer);
         } catch (IOException e) {
-            LOGGER.severe("Unable to load the source files within solution");
-            return;
-        }
-
-        /* Compile the solution */
-        boolean compiled = Compiler.compile(Arrays.asList(files),
-                options.classPath, output, writer);
-        if (!compiled) {
             LOGGER.severe("Unable to compile solution: " + name);
-            LOGGER.severe(writer.toString());
+            return null;
         }
-        LOGGER.finest("Solution " + name + " Compilation Output");
-        LOGGER.finest(writer.toString());
+        /* Log each message in one call so concurrent compilations don't interleave */
+        if (!compiled.compiles()) {
+            LOGGER.severe("Unable to compile solution: " + name + "\n"
+                    + writer.toString());
+        }
+        LOGGER.finest("Solution " + name + " Compilation Output\n"
+                + writer.toString());
+        return compiled.getOutputPath();
     }
 
     /**
@@ -264,36 +504,105 @@ public class JUnit {
         }
 
 
-        StringWriter writer;
+        /* Compile each solution on the pool, with its own output writer */
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(options.compileThreads, Math.max(solutions.length, 1)),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "chalkbox-compile");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        Map<String, String> solutionHashes = null;
+        if (options.coverageSkip) {
+            solutionHashes = sourceHashes(new Bundle(new File(
+                    options.compiledSolution.getSourcePath())), true);
+            solutionClasses = solutionHashes == null ? null : solutionHashes.keySet();
+        }
+
+        Map<String, Future<String>> compiled = new TreeMap<>();
         for (File solutionFolder : solutions) {
             String solutionName = FileLoader.truncatePath(solutionsFolder, solutionFolder);
 
-            /* Get the folder for compilation output of this solution */
             Bundle solutionBundle = new Bundle(new File(solutionFolder.getPath()));
-            String solutionOut = solutionsOutput.getAbsolutePath(solutionFolder.getName());
+            if (solutionClasses != null) {
+                Map<String, String> hashes = sourceHashes(solutionBundle, true);
+                if (hashes != null) {
+                    changedClasses.put(solutionName, changedClasses(solutionHashes, hashes));
+                }
+            }
+            if (solutionName.equals("solution")) {
+                Map<String, String> hashes = sourceHashes(solutionBundle, false);
+                solutionIsBaseline = hashes != null && hashes.equals(sourceHashes(
+                        new Bundle(new File(options.compiledSolution.getSourcePath())),
+                        false));
+            }
+
+            compiled.put(solutionName, executor.submit(() -> compileSolution(
+                    solutionBundle, solutionName, new StringWriter())));
+        }
+        executor.shutdown();
 
-            writer = new StringWriter();
-            compileSolution(solutionBundle, solutionName, solutionOut, writer);
+        for (Map.Entry<String, Future<String>> entry : compiled.entrySet()) {
+            String solutionOut;
+            try {
+                solutionOut = entry.getValue().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                executor.shutdownNow();
+                return;
+            } catch (ExecutionException e) {
+                LOGGER.severe("Unable to compile solution: " + entry.getKey());
+                e.getCause().printStackTrace();
+                continue;
+            }
+            if (solutionOut == null) {
+                continue;
+            }
 
             /* Add an entry for this solution to the class path mapping */
-            classPaths.put(solutionName, options.classPath
+            classPaths.put(entry.getKey(), options.classPath
                     + System.getProperty("path.separator") + solutionOut);
         }
     }
 
-    /**
-     * Compile the sample solution.
+    /*
+     * Helper to hash each java source file in a bundle, keyed by class name,
+     * returning null if the source files cannot be read. If codeOnly is true,
+     * comments and formatting are ignored.
      */
-    private void compileSolution() {
-        Bundle solutionSource = new Bundle(new File(options.correctSolution));
-
-        /* Compile the sample solution */
-        StringWriter writer = new StringWriter();
-        compileSolution(solutionSource, "sample solution",
-                solutionOutput.getUnmaskedPath(), writer);
+    private static Map<String, String> sourceHashes(Bundle bundle, boolean codeOnly) {
+        Map<String, String> hashes = new HashMap<>();
+        try {
+            for (String fileName : bundle.getFileNames(".java")) {
+                SourceFile file = bundle.getFile(fileName);
+                hashes.put(bundle.getClassName(fileName),
+                        codeOnly ? file.toCodeHash() : file.toHash());
+            }
+        } catch (IOException e) {
+            LOGGER.severe("Unable to hash source files of " + bundle);
+            return null;
+        }
+        return hashes;
+    }
 
-        solutionClassPath = options.classPath + System.getProperty("path.separator")
-                + solutionOutput.getUnmaskedPath();
+    /*
+     * Helper to find the classes added, removed or modified between two sets
+     * of source file hashes.
+     */
+    private static Set<String> changedClasses(Map<String, String> expected,
+                                              Map<String, String> actual) {
+        Set<String> changed = new HashSet<>();
+        for (String className : expected.keySet()) {
+            if (!expected.get(className).equals(actual.get(className))) {
+                changed.add(className);
+            }
+        }
+        for (String className : actual.keySet()) {
+            if (!expected.containsKey(className)) {
+                changed.add(className);
+            }
+        }
+        return changed;
     }
 
     /**
@@ -307,11 +616,24 @@ public class JUnit {
      * of the JUnit stage
      */
     public Collection run(Collection submission) {
-        compileTests(submission);
-        runTests(submission);
+        Map<String, byte[]> testClasses = compileTests(submission);
+        runTests(submission, testClasses);
         return submission;
     }
 
+    /**
+     * Shuts down the executor and worker JVMs used to run test classes. The
+     * stage should not be run once closed.
+     */
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (workerPool != null) {
+            workerPool.close();
+        }
+    }
+
     /**
      * Compiles the submitted JUnit tests with the correct implementation.
      *
@@ -319,9 +641,10 @@ public class JUnit {
      * one of the submitted tests compiled.
      *
      * @param submission submission containing tests to compile
-     * @return given submission with extra test results
+     * @return byte code of the submitted tests that compiled, keyed by binary
+     * class name
      */
-    private Collection compileTests(Collection submission) {
+    private Map<String, byte[]> compileTests(Collection submission) {
         Bundle source = submission.getSource();
         Bundle tests = null;
         try {
@@ -334,6 +657,7 @@ public class JUnit {
         StringWriter error = new StringWriter();
 
         /* Compile each submitted test class individually */
+        Map<String, byte[]> testClasses = new TreeMap<>();
         boolean anyCompiles = false;
         for (String className : options.assessableTestClasses) {
             String fileName = className.replace(".", "/") + ".java";
@@ -343,11 +667,11 @@ public class JUnit {
                 file = tests.getFile(fileName); // throws NPE if no test directory was found
                 List<SourceFile> files = new ArrayList<>();
                 files.add(file);
-                boolean fileSuccess = Compiler.compile(files,
-                        solutionClassPath,
-                        submission.getWorking().getUnmaskedPath(),
-                        compileOutput);
+                Map<String, byte[]> compiled = Compiler.compileInMemory(files,
+                        solutionClassPath, compileOutput);
+                boolean fileSuccess = compiled != null;
                 if (fileSuccess) {
+                    testClasses.putAll(compiled);
                     anyCompiles = true;
                 }
                 output.add("JUnit test file " + fileName + " found");
@@ -375,63 +699,121 @@ public class JUnit {
         Run submitted JUnit tests against broken solutions even if one or
         more test classes don't compile, as long as at least one does.
          */
-        submission.getResults().set("extra_data.junit.compiles", anyCompiles);
+        submission.getResults().set(COMPILES, anyCompiles);
 
-        return submission;
+        return testClasses;
     }
 
     /**
      * Runs the submitted JUnit tests against each faulty implementation.
      *
      * @param submission submission containing tests to run
+     * @param testClasses byte code of the compiled submitted tests
      * @return given submission with extra test results, one for each faulty
      * implementation
      */
-    private Collection runTests(Collection submission) {
-        if (!submission.getResults().is("extra_data.junit.compiles")) {
+    private Collection runTests(Collection submission,
+                                Map<String, byte[]> testClasses) {
+        if (!submission.getResults().is(COMPILES)) {
             LOGGER.finest("Skipping running JUnit tests");
             return submission;
         }
 
         LOGGER.finest("Running student tests");
         LOGGER.finest(options.assessableTestClasses.toString());
-        File working = new File(submission.getSource().getUnmaskedPath());
 
-        Map<String, Integer> passes = new HashMap<>();
+        /*
+         * Start every cell of the solution x test class matrix up front, so
+         * cells can run concurrently. Results are read back in a fixed order
+         * below, so the output does not depend on which cell finishes first.
+         */
+        boolean coverageSkip = options.coverageSkip && solutionClasses != null;
+        Coverage coverage = options.coverage ? openCoverage() : null;
+        List<Future<TestClassResult>> solutionCells = new ArrayList<>();
         for (String testClass : options.assessableTestClasses) {
-            String classPath = solutionClassPath
-                    + System.getProperty("path.separator")
-                    + submission.getWorking().getUnmaskedPath();
-            Data results = JUnitRunner.runTestsCombined(testClass, classPath);
-            if (results.get("extra_data.passes") != null) {
-                passes.put(testClass, Integer.parseInt(results.get("extra_data.passes").toString()));
+            solutionCells.add(submitCell(testClass, solutionClassPath,
+                    testClasses, null, coverageSkip, coverage));
+        }
+
+        /*
+         * In early exit and coverage skipping modes the faulty solutions
+         * need the results of the correct solution, so wait for those first.
+         */
+        Map<String, Set<String>> mustPass = new HashMap<>();
+        Map<String, Set<String>> loadedClasses = new HashMap<>();
+        if (options.earlyExit || coverageSkip) {
+            for (int i = 0; i < options.assessableTestClasses.size(); i++) {
+                String testClass = options.assessableTestClasses.get(i);
+                TestClassResult results = getCell(solutionCells.get(i), testClass);
+                if (options.earlyExit) {
+                    mustPass.put(testClass, results.getPassedTests());
+                }
+                if (coverageSkip) {
+                    loadedClasses.put(testClass, getLoadedClasses(results));
+                }
+            }
+        }
+
+        Map<String, List<Future<TestClassResult>>> faultyCells = new TreeMap<>();
+        for (String solution : classPaths.keySet()) {
+            List<Future<TestClassResult>> cells = new ArrayList<>();
+            for (int i = 0; i < options.assessableTestClasses.size(); i++) {
+                String testClass = options.assessableTestClasses.get(i);
+                /* Always run every test against the correct solution */
+                boolean isCorrectSolution = solution.equals("solution");
+                if (isCorrectSolution && solutionIsBaseline) {
+                    /* Already run against the same code for the baseline */
+                    cells.add(solutionCells.get(i));
+                    continue;
+                }
+                if (coverageSkip && !isCorrectSolution && !reaches(
+                        loadedClasses.get(testClass), changedClasses.get(solution))) {
+                    /*
+                     * The test class cannot behave differently against this
+                     * solution, so reuse its results against the correct one
+                     */
+                    cells.add(CompletableFuture.completedFuture(
+                            getCell(solutionCells.get(i), testClass)));
+                    continue;
+                }
+                cells.add(submitCell(testClass, classPaths.get(solution), testClasses,
+                        isCorrectSolution ? null : mustPass.get(testClass), false, null));
             }
+            faultyCells.put(solution, cells);
+        }
+
+        Map<String, Integer> passes = new HashMap<>();
+        for (int i = 0; i < options.assessableTestClasses.size(); i++) {
+            String testClass = options.assessableTestClasses.get(i);
+            passes.put(testClass, getCell(solutionCells.get(i), testClass).getPasses());
         }
         int totalSolutionPassed = passes.values().stream().mapToInt(Integer::intValue).sum();
+        if (coverage != null) {
+            addCoverage(submission, coverage);
+        }
 
         JSONArray tests = (JSONArray) submission.getResults().get("tests");
         for (String solution : classPaths.keySet()) {
-            /* Class path for the particular solution */
-            String classPath = classPaths.get(solution)
-                    + System.getProperty("path.separator")
-                    + submission.getWorking().getUnmaskedPath();
+            /* Results of each test class run against the particular solution */
+            List<Future<TestClassResult>> cells = faultyCells.get(solution);
 
             /* JSON test result for this broken solution */
             Data solutionResult = new Data();
             /* Results of the JUnit runner for each submitted test class */
-            List<Data> classResults = new ArrayList<>();
+            List<TestClassResult> classResults = new ArrayList<>();
+            /* Did at least one test class detect that the solution is faulty? */
+            boolean detected = false;
             /* Is the solution being tested the correct implementation? */
             boolean isCorrectSolution = solution.equals("solution");
 
-            for (String testClass : options.assessableTestClasses) {
-                /* Run the JUnit tests */
-                Data results = JUnitRunner.runTestsCombined(testClass, classPath);
-                results.set("extra_data.correct", false);
-                if (results.get("extra_data.passes") != null) {
-                    int passed = Integer.parseInt(results.get("extra_data.passes").toString());
-                    if (passed < passes.get(testClass)) {
-                        results.set("extra_data.correct", true);
-                    }
+            for (int i = 0; i < options.assessableTestClasses.size(); i++) {
+                String testClass = options.assessableTestClasses.get(i);
+                /* Wait for the JUnit tests to finish */
+                TestClassResult results = getCell(cells.get(i), testClass);
+                if (results.getStoppedAt() != null
+                        || results.getPasses() < passes.get(testClass)) {
+                    /* A test that passes against the correct solution failed */
+                    detected = true;
                 }
                 classResults.add(results);
             }
@@ -463,9 +845,14 @@ public class JUnit {
             /* Find the total number of tests passed/failed for this solution */
             int totalPassed = 0;
             int totalFailed = 0;
-            for (Data classResult : classResults) {
-                totalPassed += (Integer) classResult.get("extra_data.passes");
-                totalFailed += (Integer) classResult.get("extra_data.fails");
+            /* Test which stopped testing this solution early, if any */
+            String stoppedAt = null;
+            for (TestClassResult classResult : classResults) {
+                totalPassed += classResult.getPasses();
+                totalFailed += classResult.getFails();
+                if (stoppedAt == null) {
+                    stoppedAt = classResult.getStoppedAt();
+                }
             }
             joiner.add("-------- Result --------");
             joiner.add("Number of your unit tests that passed when run against the correct "
@@ -475,11 +862,18 @@ public class JUnit {
                         + "you wrote which pass should be less than "
                         + totalSolutionPassed + ".");
             }
-            joiner.add("\nNumber of your unit tests that passed when run against this "
-                    + "implementation: " + totalPassed);
+            if (stoppedAt == null) {
+                joiner.add("\nNumber of your unit tests that passed when run against this "
+                        + "implementation: " + totalPassed);
+            } else {
+                joiner.add("\nTesting of this implementation stopped early, as your unit "
+                        + "test " + stoppedAt + " passed when run against the correct "
+                        + "implementation but did not pass when run against this "
+                        + "implementation.");
+            }
 
             if (!isCorrectSolution) {
-                if (totalPassed < totalSolutionPassed) {
+                if (totalPassed < totalSolutionPassed || stoppedAt != null) {
                     joiner.add("\nOutcome: Your unit tests correctly detected that this was a "
                             + "faulty implementation. You received marks for this implementation.");
                 } else {
@@ -492,22 +886,206 @@ public class JUnit {
             if (totalFailed > 0) {
                 joiner.add("Tests which did not pass for this implementation:");
             }
-            for (Data classResult : classResults) {
-                String classOutput = (String) classResult.get("output");
+            for (TestClassResult classResult : classResults) {
+                String classOutput = classResult.getOutput();
                 /* Don't add output if there is no output ("") */
                 if (!classOutput.isEmpty()) {
                     joiner.add(classOutput);
                 }
-                if (classResult.is("extra_data.correct")
-                        && !isCorrectSolution) {
-                    solutionResult.set("score", solutionWeighting);
-                }
+            }
+            if (detected && !isCorrectSolution) {
+                solutionResult.set("score", solutionWeighting);
             }
             solutionResult.set("output", joiner.toString());
+            if (options.timing) {
+                addTiming(solutionResult, classResults);
+            }
 
             tests.add(solutionResult);
         }
 
         return submission;
     }
+
+    /*
+     * Helper to start running a test class against a solution, on the
+     * executor if there is one or on the calling thread otherwise.
+     *
+     * Each run loads the solution and tests in a new class loader (see
+     * JUnitRunner), so runs never share static state.
+     */
+    private Future<TestClassResult> submitCell(String testClass, String classPath,
+                                               Map<String, byte[]> testClasses,
+                                               Set<String> mustPass, boolean recordLoads,
+                                               Coverage coverage) {
+        Callable<TestClassResult> cell = () -> runCell(testClass, classPath, testClasses,
+                mustPass, recordLoads, coverage);
+        if (executor == null) {
+            FutureTask<TestClassResult> task = new FutureTask<>(cell);
+            task.run();
+            return task;
+        }
+        return executor.submit(cell);
+    }
+
+    /*
+     * Helper to run a test class against a solution, abandoning it if it
+     * runs for longer than the configured test timeout. If mustPass is not
+     * null, the run stops as soon as one of those tests fails. If recordLoads
+     * is true, the classes loaded from the class path are recorded. If
+     * coverage is not null, the run is instrumented to collect coverage.
+     */
+    private TestClassResult runCell(String testClass, String classPath,
+                                    Map<String, byte[]> testClasses,
+                                    Set<String> mustPass, boolean recordLoads,
+                                    Coverage coverage) throws Exception {
+        if (workerPool != null) {
+            return workerPool.run(testClass, classPath, testClasses, mustPass,
+                    recordLoads, coverage, options.outputLimit, options.testTimeout);
+        }
+
+        Callable<TestClassResult> run = () -> {
+            if (mustPass != null) {
+                return JUnitRunner.runTestsUntilFailure(testClass, classPath,
+                        testClasses, mustPass, options.outputLimit);
+            } else if (recordLoads) {
+                return JUnitRunner.runTestsRecordingLoads(testClass, classPath,
+                        testClasses, coverage, options.outputLimit);
+            }
+            return JUnitRunner.runTestsCombined(testClass, classPath, testClasses,
+                    coverage, options.outputLimit);
+        };
+        if (options.testTimeout == 0) {
+            return run.call();
+        }
+
+        /* Run on a separate thread so that a stuck test can be abandoned */
+        Set<MemoryClassLoader> opened = ConcurrentHashMap.newKeySet();
+        FutureTask<TestClassResult> task = new FutureTask<>(
+                () -> TestClassLoaders.track(opened, run));
+        Thread thread = new Thread(task, "chalkbox-junit-" + testClass);
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            return task.get(options.testTimeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            thread.interrupt();
+            /* The abandoned thread keeps running, but need not keep its files open */
+            TestClassLoaders.close(opened);
+            LOGGER.warning("Timed out running " + testClass);
+            return TestClassResult.failed(testClass + " timed out after "
+                    + options.testTimeout + "ms\n");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw (Exception) e.getCause();
+        }
+    }
+
+    /*
+     * Helper to start collecting coverage of the correct solution, returning
+     * null if its compiled classes cannot be read.
+     */
+    private Coverage openCoverage() {
+        try {
+            return new Coverage(options.compiledSolution.getOutputPath());
+        } catch (IOException e) {
+            LOGGER.severe("Unable to read the compiled correct solution for coverage");
+            return null;
+        }
+    }
+
+    /*
+     * Helper to add the coverage of the correct solution by the submitted
+     * tests to the output of the JUnit compilation result, once every test
+     * class has run against the correct solution.
+     */
+    private static void addCoverage(Collection submission, Coverage coverage) {
+        try (coverage) {
+            JSONArray tests = (JSONArray) submission.getResults().get("tests");
+            for (Object test : tests) {
+                if (!(test instanceof JSONObject)) {
+                    continue;
+                }
+                JSONObject result = (JSONObject) test;
+                if ("JUnit compilation".equals(result.get("name"))) {
+                    result.put("output", result.get("output")
+                            + "\nCoverage of the correct implementation by your "
+                            + "unit tests:\n" + coverage.report());
+                }
+            }
+        }
+    }
+
+    /*
+     * Helper to record the total time taken by the test classes run against
+     * a solution.
+     */
+    private static void addTiming(Data solutionResult,
+                                  List<TestClassResult> classResults) {
+        double classLoadMillis = 0;
+        double classMillis = 0;
+        double testsMillis = 0;
+        for (TestClassResult classResult : classResults) {
+            classLoadMillis += classResult.getClassLoadMillis();
+            classMillis += classResult.getClassMillis();
+            testsMillis += classResult.getTestsMillis();
+        }
+        solutionResult.set(CLASS_LOAD_MS, classLoadMillis);
+        solutionResult.set(CLASS_MS, classMillis);
+        solutionResult.set(TESTS_MS, testsMillis);
+    }
+
+    /*
+     * Helper to get the top level classes loaded from the class path in a
+     * test class run, or null if they were not recorded.
+     */
+    private static Set<String> getLoadedClasses(TestClassResult results) {
+        List<String> names = results.getLoadedClasses();
+        if (names == null) {
+            return null;
+        }
+        Set<String> loaded = new HashSet<>();
+        for (String name : names) {
+            /* Nested classes are compiled from their top level class' file */
+            loaded.add(name.split("\\$")[0]);
+        }
+        return loaded;
+    }
+
+    /*
+     * Helper to determine whether a test class may reach a changed class.
+     *
+     * Errs on the side of running the test class: if the loaded or changed
+     * classes are unknown, or the test class loaded a class that is not
+     * named after a source file (e.g. a second top level class in a file),
+     * it is assumed to reach the changed classes.
+     */
+    private boolean reaches(Set<String> loaded, Set<String> changed) {
+        if (loaded == null || changed == null) {
+            return true;
+        }
+        for (String className : loaded) {
+            if (changed.contains(className)
+                    || !solutionClasses.contains(className)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Helper to wait for the result of running a test class.
+     */
+    private TestClassResult getCell(Future<TestClassResult> cell, String testClass) {
+        try {
+            return cell.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while running " + testClass, e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to run " + testClass, e.getCause());
+        }
+    }
 }
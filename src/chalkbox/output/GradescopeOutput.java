@@ -2,10 +2,16 @@ package chalkbox.output;
 
 import chalkbox.api.collections.Collection;
 import chalkbox.api.collections.Data;
+import chalkbox.api.files.TempFiles;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 
 /**
  * Outputs a submission's feedback to a JSON file in Gradescope format.
@@ -18,11 +24,15 @@ public class GradescopeOutput {
      * The file path written to is the value of the "json" key in the
      * submission's results Data instance.
      *
+     * The JSON is streamed to a temporary file in the same directory, which
+     * then replaces the output file in a single rename, so the output file
+     * is never seen partially written.
+     *
      * @param submission submission to output
      */
     public static void output(Collection submission) {
         Data results = submission.getResults();
-        File jsonFile = new File((String) results.get("json"));
+        File jsonFile = new File((String) results.get("json")).getAbsoluteFile();
 
         // The below fields are not part of the Gradescope format, but still
         // needed during the processing pipeline (for now).
@@ -30,9 +40,49 @@ public class GradescopeOutput {
         results.delete("json");
 
         try {
-            Files.write(jsonFile.toPath(), results.toString().getBytes());
+            write(results, jsonFile);
         } catch (IOException e) {
             System.err.println("Unable to write output JSON file");
         }
     }
+
+    /**
+     * Writes JSON data to a file as UTF-8, replacing the file in a single
+     * rename so that it is never seen partially written.
+     *
+     * @param data data to write
+     * @param file file to write the data to
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Data data, File file) throws IOException {
+        File target = file.getAbsoluteFile();
+        Path temp = TempFiles.createFile(target.getParentFile().toPath(),
+                target.getName(), ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                data.writeJSONString(writer);
+            }
+            move(temp, target.toPath());
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                /* Leave the temporary file behind */
+            }
+            throw e;
+        }
+    }
+
+    /*
+     * Helper to replace a file with another, atomically if the file system
+     * supports it.
+     */
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
 }
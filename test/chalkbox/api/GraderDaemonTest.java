@@ -0,0 +1,184 @@
+package chalkbox.api;
+
+import chalkbox.api.collections.Data;
+import chalkbox.engines.Engine;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class GraderDaemonTest {
+
+    /** Number of CountingEngine instances created so far */
+    private static final AtomicInteger created = new AtomicInteger();
+
+    /** Number of CountingEngine instances closed so far */
+    private static final AtomicInteger closed = new AtomicInteger();
+
+    /**
+     * Engine that records which instance graded each submission.
+     */
+    public static class CountingEngine extends Engine {
+        private final int instance = created.incrementAndGet();
+
+        @Override
+        public void run() {
+            try {
+                Files.writeString(Path.of(getOutputFile()),
+                        "{\"instance\": " + instance + "}");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            closed.incrementAndGet();
+        }
+    }
+
+    private Path directory;
+    private Path socket;
+    private Thread daemon;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("daemon");
+        socket = directory.resolve("daemon.sock");
+        daemon = new Thread(() -> {
+            try {
+                new GraderDaemon(socket.toString()).listen();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "chalkbox-test-daemon");
+        daemon.setDaemon(true);
+        daemon.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (daemon.isAlive()) {
+            send(GraderDaemon.STOP);
+            daemon.join(10000);
+        }
+    }
+
+    @Test
+    public void testMalformedRequests() throws Exception {
+        assertEquals("ERROR Malformed request", send("HELLO"));
+        assertEquals("ERROR Malformed request",
+                send(String.join(GraderDaemon.SEPARATOR,
+                        GraderDaemon.GRADE, "box.yml")));
+        assertTrue("Daemon should keep running after a bad request",
+                daemon.isAlive());
+    }
+
+    @Test
+    public void testInvalidBoxFile() throws Exception {
+        String reply = grade(directory.resolve("missing.yml"), "output.json");
+        assertTrue(reply, reply.startsWith("ERROR Invalid box file: "));
+    }
+
+    @Test
+    public void testStop() throws Exception {
+        assertEquals("OK", send(GraderDaemon.STOP));
+        daemon.join(10000);
+        assertFalse(daemon.isAlive());
+        assertFalse("Socket should be removed", Files.exists(socket));
+    }
+
+    @Test
+    public void testReloadsModifiedBoxFile() throws Exception {
+        Path box = directory.resolve("box.yml");
+        writeBox(box, "first");
+        int before = created.get();
+
+        assertEquals(1, graded(box, "first.json") - before);
+        assertEquals("Unmodified box file should reuse its engine",
+                1, graded(box, "second.json") - before);
+
+        int closedBefore = closed.get();
+        writeBox(box, "second");
+        assertTrue(box.toFile().setLastModified(
+                box.toFile().lastModified() + 2000));
+        assertEquals("Modified box file should be reloaded",
+                2, graded(box, "third.json") - before);
+        assertEquals("Replaced engine should be closed",
+                closedBefore + 1, closed.get());
+    }
+
+    /* Helper to write a box file for a CountingEngine */
+    private static void writeBox(Path box, String assignment) throws IOException {
+        Files.writeString(box, "engine: " + CountingEngine.class.getName()
+                + "\n---\n"
+                + "courseCode: TEST\n"
+                + "assignment: " + assignment + "\n"
+                + "submission: .\n"
+                + "outputFile: results.json\n");
+    }
+
+    /* Helper to grade a submission, returning the engine instance that graded it */
+    private int graded(Path box, String output) throws Exception {
+        Path outputFile = directory.resolve(output);
+        assertEquals("OK " + outputFile, grade(box, output));
+        return ((Number) new Data(outputFile.toFile()).get("instance")).intValue();
+    }
+
+    /* Helper to send a grading request for an empty submission */
+    private String grade(Path box, String output) throws Exception {
+        File submission = Files.createDirectories(
+                directory.resolve("submission")).toFile();
+        return send(String.join(GraderDaemon.SEPARATOR, GraderDaemon.GRADE,
+                box.toString(), submission.getPath(),
+                directory.resolve(output).toString()));
+    }
+
+    /* Helper to send a single request to the daemon and read its reply */
+    private String send(String request) throws Exception {
+        try (SocketChannel channel = connect()) {
+            Writer out = new OutputStreamWriter(
+                    Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+            out.write(request + "\n");
+            out.flush();
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            return in.readLine();
+        }
+    }
+
+    /* Helper to connect to the daemon, waiting for it to start listening */
+    private SocketChannel connect() throws Exception {
+        long deadline = System.currentTimeMillis() + 30000;
+        while (true) {
+            SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            try {
+                channel.connect(UnixDomainSocketAddress.of(socket));
+                return channel;
+            } catch (IOException e) {
+                channel.close();
+                /* The daemon may still be warming up or binding its socket */
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+}
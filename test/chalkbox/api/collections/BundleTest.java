@@ -0,0 +1,42 @@
+package chalkbox.api.collections;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class BundleTest {
+
+    private static final String FIRST = "public class A { }\n";
+    private static final String SECOND = "public class B { }\n";
+
+    @Test
+    public void testHashIgnoresOrderFilesWereWritten() throws IOException {
+        Bundle forwards = bundle("a/A.java", FIRST, "b/B.java", SECOND);
+        Bundle backwards = bundle("b/B.java", SECOND, "a/A.java", FIRST);
+        assertEquals(forwards.hash(), backwards.hash());
+    }
+
+    @Test
+    public void testHashDependsOnPaths() throws IOException {
+        Bundle original = bundle("a/A.java", FIRST, "b/B.java", SECOND);
+        Bundle moved = bundle("c/A.java", FIRST, "b/B.java", SECOND);
+        Bundle swapped = bundle("a/A.java", SECOND, "b/B.java", FIRST);
+        assertNotEquals(original.hash(), moved.hash());
+        assertNotEquals(original.hash(), swapped.hash());
+    }
+
+    /* Helper to create a bundle containing the given path and content pairs */
+    private static Bundle bundle(String... files) throws IOException {
+        Path folder = Files.createTempDirectory("bundle");
+        for (int i = 0; i < files.length; i += 2) {
+            Path file = folder.resolve(files[i]);
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, files[i + 1]);
+        }
+        return new Bundle(folder.toFile());
+    }
+}
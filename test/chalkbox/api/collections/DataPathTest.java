@@ -0,0 +1,61 @@
+package chalkbox.api.collections;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class DataPathTest {
+
+    @Test
+    public void testSplitsOnDots() {
+        DataPath path = DataPath.of("extra_data.compilation.compiles");
+        assertEquals(3, path.size());
+        assertEquals("extra_data", path.segment(0));
+        assertEquals("compilation", path.segment(1));
+        assertEquals("compiles", path.segment(2));
+        assertEquals("extra_data.compilation.compiles", path.toString());
+    }
+
+    @Test
+    public void testEscapedDotIsPartOfKey() {
+        DataPath path = DataPath.of("files.Main\\.java.lines");
+        assertEquals(3, path.size());
+        assertEquals("files", path.segment(0));
+        assertEquals("Main.java", path.segment(1));
+        assertEquals("lines", path.segment(2));
+    }
+
+    @Test
+    public void testKeyWithoutDots() {
+        DataPath path = DataPath.of("score");
+        assertEquals(1, path.size());
+        assertEquals("score", path.segment(0));
+    }
+
+    @Test
+    public void testEqualPaths() {
+        assertEquals(DataPath.of("a.b"), DataPath.of("a.b"));
+        assertEquals(DataPath.of("a.b").hashCode(), DataPath.of("a.b").hashCode());
+        assertNotEquals(DataPath.of("a.b"), DataPath.of("a\\.b"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testKeyWithNoSegments() {
+        DataPath.of(".");
+    }
+
+    @Test
+    public void testEscapedKeyInData() {
+        Data data = new Data();
+        data.set("files.Main\\.java", 1L);
+        data.set(DataPath.of("files.Test\\.java"), 2L);
+        assertEquals(1L, data.get("files.Main\\.java"));
+        assertEquals(2L, data.get(DataPath.of("files.Test\\.java")));
+        assertNull(data.get("files.Main"));
+        assertEquals(Set.of("Main.java", "Test.java"),
+                ((Map<?, ?>) data.get("files")).keySet());
+    }
+}
@@ -0,0 +1,95 @@
+package chalkbox.api.common;
+
+import chalkbox.api.collections.Bundle;
+import chalkbox.api.collections.Data;
+import org.json.simple.JSONArray;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class ResultCacheTest {
+
+    private Path cacheDirectory;
+    private Path submission;
+
+    @Before
+    public void setUp() throws Exception {
+        cacheDirectory = Files.createTempDirectory("result-cache");
+        submission = Files.createTempDirectory("submission");
+        Files.createDirectories(submission.resolve("src"));
+        Files.createDirectories(submission.resolve("test"));
+        Files.writeString(submission.resolve("src/Main.java"),
+                "public class Main {}", StandardCharsets.UTF_8);
+        Files.writeString(submission.resolve("test/MainTest.java"),
+                "public class MainTest {}", StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testStoreAndRestore() throws Exception {
+        ResultCache cache = new ResultCache(cacheDirectory.toString(), "config");
+        String key = cache.key("stage", bundle(), ResultCache.ALL_FILES);
+        assertFalse(cache.contains(key));
+
+        Data before = new Data();
+        before.set("tests", new JSONArray());
+        before.set("extra_data.existing", true);
+        Data after = new Data(before);
+        Data test = new Data();
+        test.set("name", "Stage test");
+        test.set("score", 1.5);
+        ((JSONArray) after.get("tests")).add(test);
+        after.set("extra_data.stage.passed", true);
+        cache.store(key, before, after);
+        assertTrue(cache.contains(key));
+
+        Data restored = new Data();
+        restored.set("tests", new JSONArray());
+        restored.set("extra_data.existing", true);
+        assertTrue(cache.restore(key, restored));
+        assertEquals(after.toString(), restored.toString());
+    }
+
+    @Test
+    public void testRestoreMissingEntry() throws Exception {
+        ResultCache cache = new ResultCache(cacheDirectory.toString(), "config");
+        String key = cache.key("stage", bundle(), ResultCache.ALL_FILES);
+        assertFalse(cache.restore(key, new Data()));
+    }
+
+    @Test
+    public void testKeyDependsOnConfiguration() throws Exception {
+        String key = new ResultCache(cacheDirectory.toString(), "config")
+                .key("stage", bundle(), ResultCache.ALL_FILES);
+        assertEquals(key, new ResultCache(cacheDirectory.toString(), "config")
+                .key("stage", bundle(), ResultCache.ALL_FILES));
+        assertNotEquals(key, new ResultCache(cacheDirectory.toString(), "other")
+                .key("stage", bundle(), ResultCache.ALL_FILES));
+    }
+
+    @Test
+    public void testKeyDependsOnInputFiles() throws Exception {
+        ResultCache cache = new ResultCache(cacheDirectory.toString(), "config");
+        String all = cache.key("stage", bundle(), ResultCache.ALL_FILES);
+        String src = cache.key("stage", bundle(), ResultCache.directory("src"));
+
+        /* Changing a file outside of the stage's inputs keeps its key */
+        Files.writeString(submission.resolve("test/MainTest.java"),
+                "public class MainTest { }", StandardCharsets.UTF_8);
+        assertNotEquals(all, cache.key("stage", bundle(), ResultCache.ALL_FILES));
+        assertEquals(src, cache.key("stage", bundle(), ResultCache.directory("src")));
+
+        Files.writeString(submission.resolve("src/Main.java"),
+                "public class Main { }", StandardCharsets.UTF_8);
+        assertNotEquals(src, cache.key("stage", bundle(), ResultCache.directory("src")));
+    }
+
+    /* Helper to read the submission as it is now */
+    private Bundle bundle() {
+        return new Bundle(submission.toFile());
+    }
+}
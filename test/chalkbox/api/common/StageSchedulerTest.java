@@ -0,0 +1,147 @@
+package chalkbox.api.common;
+
+import chalkbox.api.collections.Collection;
+import chalkbox.api.collections.Data;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StageSchedulerTest {
+
+    private StageScheduler scheduler;
+
+    @After
+    public void tearDown() {
+        if (scheduler != null) {
+            scheduler.close();
+        }
+    }
+
+    @Test
+    public void testRunsStagesConcurrentlyAndMergesInOrder() throws Exception {
+        scheduler = new StageScheduler(3);
+        CountDownLatch started = new CountDownLatch(3);
+        CountDownLatch finished = new CountDownLatch(2);
+        for (String name : new String[] {"first", "second", "third"}) {
+            scheduler.add(name, submission -> {
+                started.countDown();
+                /* Every stage must be running at once for this to return true */
+                boolean concurrent = await(started);
+                if (name.equals("first")) {
+                    /* Finish last, so completion order differs from merge order */
+                    await(finished);
+                } else {
+                    finished.countDown();
+                }
+                return addTest(submission, name, concurrent);
+            });
+        }
+
+        Collection submission = scheduler.run(submission());
+
+        assertEquals(List.of("first", "second", "third"), testNames(submission));
+        for (Object test : (JSONArray) submission.getResults().get("tests")) {
+            assertEquals(true, ((JSONObject) test).get("passed"));
+        }
+        assertEquals(true, submission.getResults().get("extra_data.first"));
+        assertEquals(true, submission.getResults().get("extra_data.third"));
+    }
+
+    @Test
+    public void testSingleThreadRunsStagesInOrderOnCallingThread() throws Exception {
+        for (int threads : new int[] {1, 0}) {
+            scheduler = new StageScheduler(threads);
+            Thread caller = Thread.currentThread();
+            List<String> order = new ArrayList<>();
+            for (String name : new String[] {"first", "second", "third"}) {
+                scheduler.add(name, submission -> {
+                    order.add(name);
+                    return addTest(submission, name,
+                            Thread.currentThread() == caller);
+                });
+            }
+
+            Collection submission = scheduler.run(submission());
+
+            assertEquals(List.of("first", "second", "third"), order);
+            assertEquals(order, testNames(submission));
+            for (Object test : (JSONArray) submission.getResults().get("tests")) {
+                assertEquals(true, ((JSONObject) test).get("passed"));
+            }
+            scheduler.close();
+        }
+    }
+
+    @Test
+    public void testFailureOfFirstStageInMergeOrder() throws Exception {
+        scheduler = new StageScheduler(2);
+        CountDownLatch secondFailed = new CountDownLatch(1);
+        scheduler.add("first", submission -> {
+            await(secondFailed);
+            throw new IOException("first");
+        });
+        scheduler.add("second", submission -> {
+            secondFailed.countDown();
+            throw new IOException("second");
+        });
+
+        try {
+            scheduler.run(submission());
+            fail("Failed stages should fail the run");
+        } catch (ExecutionException e) {
+            assertEquals("first", e.getCause().getMessage());
+        }
+    }
+
+    /* Helper to wait for a latch within a stage, which may only throw IOException */
+    private static boolean await(CountDownLatch latch) throws IOException {
+        try {
+            return latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /* Helper to create an empty submission */
+    private static Collection submission() throws IOException {
+        Data metadata = new Data();
+        metadata.set("root", Files.createTempDirectory("submission").toString());
+        metadata.set("tests", new JSONArray());
+        return new Collection(metadata);
+    }
+
+    /*
+     * Helper to record a test named after a stage, along with whether the
+     * stage ran as expected.
+     */
+    @SuppressWarnings("unchecked")
+    private static Collection addTest(Collection submission, String name,
+                                      boolean passed) {
+        JSONObject test = new JSONObject();
+        test.put("name", name);
+        test.put("passed", passed);
+        ((JSONArray) submission.getResults().get("tests")).add(test);
+        submission.getResults().set("extra_data." + name, true);
+        return submission;
+    }
+
+    /* Helper to get the names of the tests recorded in a submission */
+    private static List<String> testNames(Collection submission) {
+        List<String> names = new ArrayList<>();
+        for (Object test : (JSONArray) submission.getResults().get("tests")) {
+            names.add((String) ((JSONObject) test).get("name"));
+        }
+        return names;
+    }
+}
@@ -0,0 +1,63 @@
+package chalkbox.api.common.java;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OutputCaptureTest {
+
+    @Test
+    public void testTextWithinLimitIsKept() {
+        String text = "first\nsecond\nthird";
+        assertEquals(text, OutputCapture.capture(text, 100));
+    }
+
+    @Test
+    public void testKeepsHeadAndTail() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            text.append("line ").append(i).append("\n");
+        }
+        String captured = OutputCapture.capture(text.toString(), 40);
+
+        /* Whole lines fitting in 20 characters from the start and the end */
+        assertEquals("line 0\nline 1\n"
+                + "\t... (96 lines omitted)\n"
+                + "line 98\nline 99\n", captured);
+    }
+
+    @Test
+    public void testCollapsesRepeatedLines() {
+        String text = "start\n" + "\tat Recursive.call\n".repeat(1000) + "end\n";
+        assertEquals("start\n\tat Recursive.call\n"
+                + "\t... (previous line repeated 999 more times)\nend\n",
+                OutputCapture.capture(text, 200));
+    }
+
+    @Test
+    public void testCutsLongLine() {
+        String captured = OutputCapture.capture("x".repeat(100) + "\nend\n", 20);
+        assertEquals("x".repeat(10) + "... (90 characters omitted)\nend\n", captured);
+    }
+
+    @Test
+    public void testDropsCarriageReturns() {
+        assertEquals("first\nsecond\n", OutputCapture.capture("first\r\nsecond\r\n", 100));
+    }
+
+    @Test
+    public void testCapturesTraceWithinLimit() {
+        String trace = OutputCapture.captureTrace(deepException(500), 2000);
+        assertTrue(trace.startsWith(IllegalStateException.class.getName() + ": deep\n"));
+        assertTrue(trace.contains("more times)\n"));
+        assertTrue("Trace should be close to the limit", trace.length() < 2500);
+    }
+
+    /* Helper to throw an exception from deep within a recursive call */
+    private static IllegalStateException deepException(int depth) {
+        if (depth == 0) {
+            return new IllegalStateException("deep");
+        }
+        return deepException(depth - 1);
+    }
+}
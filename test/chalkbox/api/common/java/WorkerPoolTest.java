@@ -0,0 +1,159 @@
+package chalkbox.api.common.java;
+
+import chalkbox.api.common.java.coverage.Coverage;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.tools.ToolProvider;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class WorkerPoolTest {
+
+    /* Test classes run by the workers, compiled into a class path directory */
+    private static final Map<String, String> SOURCES = Map.of(
+            "Sample", "public class Sample {\n"
+                    + "    public static int two() { return 2; }\n"
+                    + "}\n",
+            "SampleTest", "import org.junit.Test;\n"
+                    + "import static org.junit.Assert.*;\n"
+                    + "public class SampleTest {\n"
+                    + "    @Test public void passes() { assertEquals(2, Sample.two()); }\n"
+                    + "    @Test public void reportsProcess() {\n"
+                    + "        fail(\"pid \" + ProcessHandle.current().pid());\n"
+                    + "    }\n"
+                    + "}\n",
+            "ExitTest", "import org.junit.Test;\n"
+                    + "public class ExitTest {\n"
+                    + "    @Test public void exits() { System.exit(1); }\n"
+                    + "}\n",
+            "LoopTest", "import org.junit.Test;\n"
+                    + "public class LoopTest {\n"
+                    + "    @Test public void loops() { while (true) { } }\n"
+                    + "}\n");
+
+    private static final Pattern PID = Pattern.compile("pid (\\d+)");
+
+    private static String classPath;
+
+    private WorkerPool pool;
+
+    @BeforeClass
+    public static void compileTests() throws Exception {
+        Path sources = Files.createTempDirectory("worker-src");
+        Path classes = Files.createTempDirectory("worker-classes");
+        String[] args = new String[SOURCES.size() + 4];
+        args[0] = "-d";
+        args[1] = classes.toString();
+        args[2] = "-cp";
+        args[3] = System.getProperty("java.class.path");
+        int i = 4;
+        for (Map.Entry<String, String> source : SOURCES.entrySet()) {
+            Path file = sources.resolve(source.getKey() + ".java");
+            Files.writeString(file, source.getValue(), StandardCharsets.UTF_8);
+            args[i++] = file.toString();
+        }
+        assertEquals("Test classes should compile", 0,
+                ToolProvider.getSystemJavaCompiler().run(null, null, null, args));
+        classPath = classes.toString();
+    }
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testRunsTestClassOnWorker() throws Exception {
+        pool = new WorkerPool(1, 100, List.of());
+        TestClassResult results = run("SampleTest", 0);
+
+        assertEquals(1, results.getPasses());
+        assertEquals(1, results.getFails());
+        assertEquals(2, results.getTotal());
+        assertNotEquals("Tests should run in another JVM",
+                ProcessHandle.current().pid(), pid(results));
+        assertEquals(List.of("Sample", "SampleTest"), results.getLoadedClasses());
+    }
+
+    @Test
+    public void testMustPassStopsRun() throws Exception {
+        pool = new WorkerPool(1, 100, List.of());
+        TestClassResult results = pool.run("SampleTest", classPath, Map.of(),
+                Set.of("SampleTest.reportsProcess"), false, null, 0, 0);
+        assertEquals("SampleTest.reportsProcess", results.getStoppedAt());
+    }
+
+    @Test
+    public void testCollectsCoverageOnWorker() throws Exception {
+        pool = new WorkerPool(1, 100, List.of());
+        try (Coverage coverage = new Coverage(classPath)) {
+            pool.run("SampleTest", classPath, Map.of(), null, false, coverage, 0, 0);
+            /* Only the body of two() has run, not the default constructor */
+            assertTrue(coverage.report().contains(
+                    "\nSample: 1/2 lines (50.0%), 0/0 branches (-)\n"));
+        }
+    }
+
+    @Test
+    public void testReusesWorkerUntilJobLimit() throws Exception {
+        pool = new WorkerPool(1, 2, List.of());
+        long first = pid(run("SampleTest", 0));
+        long second = pid(run("SampleTest", 0));
+        long third = pid(run("SampleTest", 0));
+
+        assertEquals(first, second);
+        assertNotEquals("Worker should be replaced after 2 jobs", second, third);
+    }
+
+    @Test
+    public void testReplacesWorkerThatExits() throws Exception {
+        pool = new WorkerPool(1, 100, List.of());
+        long before = pid(run("SampleTest", 0));
+
+        TestClassResult results = run("ExitTest", 0);
+        assertEquals(1, results.getFails());
+        assertTrue(results.getOutput().contains("stopped the test runner unexpectedly"));
+
+        TestClassResult after = run("SampleTest", 0);
+        assertEquals(1, after.getPasses());
+        assertNotEquals(before, pid(after));
+    }
+
+    @Test
+    public void testReplacesWorkerThatTimesOut() throws Exception {
+        pool = new WorkerPool(1, 100, List.of());
+        long before = pid(run("SampleTest", 0));
+
+        TestClassResult results = run("LoopTest", 1000);
+        assertEquals(1, results.getFails());
+        assertTrue(results.getOutput().contains("timed out after 1000ms"));
+
+        TestClassResult after = run("SampleTest", 0);
+        assertEquals(1, after.getPasses());
+        assertNotEquals(before, pid(after));
+    }
+
+    /* Helper to run every test in a test class, recording the classes it loads */
+    private TestClassResult run(String className, long timeout) throws Exception {
+        return pool.run(className, classPath, Map.of(), null, true, null, 0, timeout);
+    }
+
+    /* Helper to get the process id reported by SampleTest */
+    private static long pid(TestClassResult results) {
+        Matcher matcher = PID.matcher(results.getOutput());
+        assertTrue("Output should report the worker's process id", matcher.find());
+        return Long.parseLong(matcher.group(1));
+    }
+}
@@ -0,0 +1,89 @@
+package chalkbox.api.common.java.coverage;
+
+import chalkbox.api.common.java.MemoryClassLoader;
+import chalkbox.api.common.java.TestClassLoaders;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.tools.ToolProvider;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class CoverageInstrumenterTest {
+
+    /* Line numbers matter: the class is on line 1, the code on lines 3, 4 and 6 */
+    private static final String SOURCE = String.join("\n",
+            "public class Sample {",
+            "    public static int abs(int x) {",
+            "        if (x < 0) {",
+            "            return -x;",
+            "        }",
+            "        return x;",
+            "    }",
+            "}",
+            "");
+
+    private static Path classes;
+
+    @BeforeClass
+    public static void compileSample() throws Exception {
+        Path source = Files.createTempDirectory("coverage-src").resolve("Sample.java");
+        Files.writeString(source, SOURCE, StandardCharsets.UTF_8);
+        classes = Files.createTempDirectory("coverage-classes");
+        int status = ToolProvider.getSystemJavaCompiler().run(null, null, null,
+                "-d", classes.toString(), source.toString());
+        assertEquals("Sample class should compile", 0, status);
+    }
+
+    @Test
+    public void testInstrumentedClassVerifiesAndRecordsLines() throws Exception {
+        byte[] bytes = Files.readAllBytes(classes.resolve("Sample.class"));
+        ClassCoverage coverage = new CoverageInstrumenter("Sample").instrument(bytes);
+        try {
+            /* Initialising the class links it, which runs the verifier */
+            ClassLoader loader = new ClassLoader(getClass().getClassLoader()) {
+                @Override
+                protected Class<?> findClass(String name) throws ClassNotFoundException {
+                    if (!name.equals("Sample")) {
+                        throw new ClassNotFoundException(name);
+                    }
+                    byte[] instrumented = coverage.getInstrumentedBytes();
+                    return defineClass(name, instrumented, 0, instrumented.length);
+                }
+            };
+            Class<?> sample = Class.forName("Sample", true, loader);
+            Method abs = sample.getMethod("abs", int.class);
+            assertEquals(5, abs.invoke(null, 5));
+
+            assertEquals(Set.of(1, 3, 4, 6), coverage.getLines());
+            assertEquals(Set.of(3, 6), coverage.getCoveredLines());
+            assertEquals(2, coverage.getBranches());
+            assertEquals(1, coverage.getCoveredBranches());
+
+            assertEquals(5, abs.invoke(null, -5));
+            assertEquals(Set.of(3, 4, 6), coverage.getCoveredLines());
+            assertEquals(2, coverage.getCoveredBranches());
+        } finally {
+            CoverageRuntime.release(coverage.getId());
+        }
+    }
+
+    @Test
+    public void testReportOfClassesLoadedThroughTransformer() throws Exception {
+        try (Coverage coverage = new Coverage(classes.toString());
+             MemoryClassLoader loader = TestClassLoaders.open(classes.toString(), Map.of())) {
+            loader.transformClassPathClasses(coverage);
+            Class<?> sample = loader.loadClass("Sample");
+            sample.getMethod("abs", int.class).invoke(null, 5);
+
+            assertEquals("Sample: 2/4 lines (50.0%), 1/2 branches (50.0%)\n"
+                    + "Total: 2/4 lines (50.0%), 1/2 branches (50.0%)", coverage.report());
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package chalkbox.api.files;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class SourceFileTest {
+
+    @Test
+    public void testStripsCommentsAndWhitespace() {
+        assertEquals("int x = 1; int y = 2;", SourceFile.stripComments(
+                "int x = 1; // first\n/* between */ int   y =\n\t2; /** doc */"));
+    }
+
+    @Test
+    public void testKeepsCommentsInsideStringLiterals() {
+        String code = "String a = \"// not a comment\"; String b = \"/* nor */\";";
+        assertEquals(code, SourceFile.stripComments(code));
+    }
+
+    @Test
+    public void testKeepsEscapedQuotesAndCharacterLiterals() {
+        String code = "String a = \"say \\\"//hi\\\"\"; char c = '\"'; char d = '/';";
+        assertEquals(code, SourceFile.stripComments(code + " // comment"));
+    }
+
+    @Test
+    public void testKeepsWhitespaceInsideTextBlocks() {
+        String code = "String a = \"\"\"\n    // kept\n    \"\"\";";
+        assertEquals(code, SourceFile.stripComments(code));
+    }
+
+    @Test
+    public void testCommentOnlyEditsHaveEqualCodeHash() throws IOException {
+        SourceFile original = file("/** Adds */\nint add(int a, int b) {\n"
+                + "    return a + b;\n}\n");
+        SourceFile commented = file("// Adds two numbers\nint add(int a, int b) {\n"
+                + "    return a + b; /* no overflow check */\n}\n");
+        SourceFile changed = file("int add(int a, int b) {\n    return a - b;\n}\n");
+
+        assertEquals(original.toCodeHash(), commented.toCodeHash());
+        assertNotEquals(original.toHash(), commented.toHash());
+        assertNotEquals(original.toCodeHash(), changed.toCodeHash());
+    }
+
+    @Test
+    public void testStringEditsChangeCodeHash() throws IOException {
+        assertNotEquals(file("String s = \"// a\";").toCodeHash(),
+                file("String s = \"// b\";").toCodeHash());
+    }
+
+    /* Helper to create a source file with the given contents */
+    private static SourceFile file(String content) throws IOException {
+        Path path = Files.createTempFile("Source", ".java");
+        Files.writeString(path, content, StandardCharsets.UTF_8);
+        File file = path.toFile();
+        return new FileSourceFile(file.getName(), file);
+    }
+}
@@ -1,6 +1,7 @@
 package chalkbox.engines;
 
 
+import org.apache.commons.io.FileUtils;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
@@ -8,10 +9,12 @@ import org.json.simple.parser.ParseException;
 import org.junit.Test;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 
 import static org.junit.Assert.*;
@@ -43,6 +46,45 @@ public class JavaEngineTest {
         assertEquals("Output JSON files are different", expected, actual);
     }
 
+    @Test
+    public void testEngineBatch() throws IOException {
+        Engine engine = null;
+        try {
+            engine = EngineLoader.load(CONFIG_BASIC_PATH);
+        } catch (ConfigFormatException e) {
+            fail("Configuration file should not be invalid");
+        }
+
+        /* Grade two copies of the same submission in one batch */
+        Path submissions = Files.createTempDirectory("submissions");
+        Path output = Files.createTempDirectory("results");
+        for (String name : new String[] {"first", "second"}) {
+            FileUtils.copyDirectory(new File(BASE_FOLDER + "submission"),
+                    submissions.resolve(name).toFile());
+        }
+        engine.runBatch(submissions.toString(), output.toString());
+
+        String first = Files.readString(output.resolve("first.json"),
+                StandardCharsets.UTF_8);
+        String second = Files.readString(output.resolve("second.json"),
+                StandardCharsets.UTF_8);
+        assertEquals("Identical submissions should have identical results",
+                first, second);
+
+        JSONParser parser = new JSONParser();
+        try {
+            JSONObject summary = (JSONObject) parser.parse(
+                    Files.readString(output.resolve(Engine.SUMMARY_FILE)));
+            JSONArray results = (JSONArray) summary.get("submissions");
+            assertEquals(2, results.size());
+            assertEquals("first", ((JSONObject) results.get(0)).get("name"));
+            assertEquals("second", ((JSONObject) results.get(1)).get("name"));
+        } catch (ParseException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
     @Test
     public void testEngineWithCheckstyle() throws IOException {
         Engine engine = null;
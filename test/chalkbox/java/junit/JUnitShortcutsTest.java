@@ -0,0 +1,105 @@
+package chalkbox.java.junit;
+
+import chalkbox.engines.JavaEngine;
+import org.apache.commons.io.FileUtils;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the optional shortcuts of the JUnit stage give the same
+ * results for each faulty solution as running every test against it.
+ */
+public class JUnitShortcutsTest {
+    private static final String BASE_FOLDER = "./test/resources/csse2002/";
+    private static final String FAULTY_SOLUTIONS = BASE_FOLDER + "solutions/faulty/";
+
+    /* Faulty solutions whose "solution" differs from the correct solution */
+    private static String unsharedSolutions;
+
+    /* Results with every test run against every solution */
+    private static JSONObject fullRun;
+
+    @BeforeClass
+    public static void runEveryTest() throws Exception {
+        /*
+         * A comment keeps the "solution" entry behaving the same, but stops
+         * it reusing the baseline run against the correct solution
+         */
+        Path faulty = Files.createTempDirectory("faulty");
+        FileUtils.copyDirectory(new File(FAULTY_SOLUTIONS), faulty.toFile());
+        Path source = faulty.resolve("solution/tms/util/TimedItem.java");
+        Files.writeString(source, Files.readString(source, StandardCharsets.UTF_8)
+                + "\n// Not the baseline\n", StandardCharsets.UTF_8);
+        unsharedSolutions = faulty.toString();
+
+        fullRun = grade(unsharedSolutions, false, false);
+    }
+
+    @Test
+    public void testReusingBaselineForSolution() throws Exception {
+        assertEquals(fullRun, grade(FAULTY_SOLUTIONS, false, false));
+    }
+
+    @Test
+    public void testCoverageSkip() throws Exception {
+        assertEquals(fullRun, grade(unsharedSolutions, false, true));
+    }
+
+    @Test
+    public void testEarlyExit() throws Exception {
+        /* Only the explanation of how the tests did differs */
+        assertEquals(scores(fullRun), scores(grade(unsharedSolutions, true, false)));
+    }
+
+    /* Helper to grade the sample submission with only the JUnit stage */
+    private static JSONObject grade(String faultySolutions, boolean earlyExit,
+                                    boolean coverageSkip) throws Exception {
+        JUnit.JUnitOptions junit = new JUnit.JUnitOptions();
+        junit.setEnabled(true);
+        junit.setWeighting(20);
+        junit.setFaultySolutions(faultySolutions);
+        junit.setAssessableTestClasses(List.of("tms.intersection.IntersectionTest",
+                "tms.sensors.DemoPressurePadTest"));
+        junit.setEarlyExit(earlyExit);
+        junit.setCoverageSkip(coverageSkip);
+
+        Path output = Files.createTempFile("results", ".json");
+        JavaEngine engine = new JavaEngine();
+        engine.setEngine(JavaEngine.class.getName());
+        engine.setCourseCode("CSSE2002");
+        engine.setAssignment("ass1");
+        engine.setSubmission(BASE_FOLDER + "submission/");
+        engine.setOutputFile(output.toString());
+        engine.setCorrectSolution(BASE_FOLDER + "solutions/correct/src/");
+        engine.setDependencies(List.of(BASE_FOLDER + "lib/hamcrest-core-1.3.jar",
+                BASE_FOLDER + "lib/junit-4.12.jar"));
+        engine.setJunit(junit);
+        engine.validateConfig();
+        engine.run();
+
+        return (JSONObject) new JSONParser().parse(
+                Files.readString(output, StandardCharsets.UTF_8));
+    }
+
+    /* Helper to get the score of each test in the results */
+    private static Map<Object, Object> scores(JSONObject results) {
+        Map<Object, Object> scores = new HashMap<>();
+        for (Object test : (JSONArray) results.get("tests")) {
+            scores.put(((JSONObject) test).get("name"), ((JSONObject) test).get("score"));
+        }
+        return scores;
+    }
+}